@@ -4,7 +4,9 @@ package com.legoaggelos.catplace;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.metrics.buffering.BufferingApplicationStartup;
 import org.springframework.boot.convert.ApplicationConversionService;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
 import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
@@ -16,12 +18,15 @@ import org.springframework.security.crypto.scrypt.SCryptPasswordEncoder;
 import org.springframework.security.provisioning.InMemoryUserDetailsManager;
 
 @SpringBootApplication
+@EnableScheduling
 
 public class CatPlaceApplication {
 
 	public static void main(String[] args) {
 
-		SpringApplication.run(CatPlaceApplication.class, args);
+		SpringApplication application = new SpringApplication(CatPlaceApplication.class);
+		application.setApplicationStartup(new BufferingApplicationStartup(4096)); //how long each startup step took, at /actuator/startup
+		application.run(args);
 
     }
 
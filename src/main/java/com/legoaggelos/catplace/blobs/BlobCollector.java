@@ -0,0 +1,68 @@
+package com.legoaggelos.catplace.blobs;
+
+import com.legoaggelos.catplace.cats.CatPlaceRepository;
+import com.legoaggelos.catplace.cats.posts.PostRepository;
+import com.legoaggelos.catplace.security.users.CatPlaceUserRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Deletes blobs that no row references anymore.
+ * The reference count of a blob is the number of POST, CAT, CAT_PLACE_USER and IMAGE_DERIVATIVE rows pointing at its hash. It is counted
+ * when collecting instead of being kept in a column, because most deletes are bulk queries (deleteAllByOwner etc.) that
+ * never see the rows they remove, so a stored counter would drift.
+ * Blobs younger than the grace period are skipped, since a blob is stored slightly before the row that references it is committed.
+ * Collecting an original forgets its derivatives, whose blobs then go in the next collection.
+ */
+@Component
+public class BlobCollector {
+    private static final Logger log = LoggerFactory.getLogger(BlobCollector.class);
+
+    private final BlobStore blobStore;
+    private final PostRepository postRepository;
+    private final CatPlaceRepository catRepository;
+    private final CatPlaceUserRepository userRepository;
+    private final ImageDerivatives derivatives;
+    private final Duration gracePeriod;
+
+    public BlobCollector(BlobStore blobStore, PostRepository postRepository, CatPlaceRepository catRepository, CatPlaceUserRepository userRepository,
+                         ImageDerivatives derivatives, @Value("${catplace.blobs.grace-period:PT1H}") Duration gracePeriod) {
+        this.blobStore = blobStore;
+        this.postRepository = postRepository;
+        this.catRepository = catRepository;
+        this.userRepository = userRepository;
+        this.derivatives = derivatives;
+        this.gracePeriod = gracePeriod;
+    }
+
+    public long referenceCount(String hash) {
+        return postRepository.countImageReferences(hash)
+                + catRepository.countProfilePictureReferences(hash)
+                + userRepository.countProfilePictureReferences(hash)
+                + derivatives.countReferences(hash);
+    }
+
+    @Scheduled(fixedDelayString = "${catplace.blobs.collection-interval:PT1H}", initialDelayString = "${catplace.blobs.collection-interval:PT1H}")
+    public int collectGarbage() throws IOException {
+        int deleted = 0;
+        Instant cutoff = Instant.now().minus(gracePeriod);
+        //a candidate can be uploaded again while this runs, so its age is checked once more when deleting it
+        for (String hash : blobStore.findStoredBefore(cutoff)) {
+            if (referenceCount(hash) == 0 && blobStore.deleteIfStoredBefore(hash, cutoff)) {
+                derivatives.deleteBySource(hash);
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            log.info("Deleted {} unreferenced blobs", deleted);
+        }
+        return deleted;
+    }
+}
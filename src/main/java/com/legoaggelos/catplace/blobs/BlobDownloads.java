@@ -0,0 +1,183 @@
+package com.legoaggelos.catplace.blobs;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.CacheControl;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.sql.Blob;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Writes a stored blob as the raw body of a response, for the /image and /picture endpoints.
+ * The ETag is the content hash, so it is strong and never has to be computed. A single Range is honoured (multiple ranges get the whole blob,
+ * which the spec allows). Files go out through Tomcat's sendfile when the connector supports it, otherwise through FileChannel.transferTo.
+ * With a size, the smallest derivative from the {@link ThumbnailPipeline} that is at least that big is served instead, if there is one.
+ */
+@Component
+public class BlobDownloads {
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private final BlobStore blobStore;
+    private final ImageDerivatives derivatives;
+
+    public BlobDownloads(BlobStore blobStore, ImageDerivatives derivatives) {
+        this.blobStore = blobStore;
+        this.derivatives = derivatives;
+    }
+
+    public void serve(Blob blob, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        serve(blob, null, request, response);
+    }
+
+    public void serve(Blob blob, Integer size, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        if (!(blob instanceof StoredBlob storedBlob) || !blobStore.exists(storedBlob.getHash())) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String hash = storedBlob.getHash();
+        if (size != null) {
+            //the derivative's own hash is the ETag, so each size is cached separately
+            hash = derivatives.findSmallestAtLeast(hash, size).filter(blobStore::exists).orElse(hash);
+        }
+        String eTag = "\"" + hash + "\"";
+        response.setHeader(HttpHeaders.ETAG, eTag);
+        response.setHeader(HttpHeaders.CACHE_CONTROL, CacheControl.noCache().cachePrivate().getHeaderValue()); //unapproved posts have images too, keep them out of shared caches
+        if (matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), eTag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long length = blobStore.size(hash);
+        long start = 0;
+        long end = length - 1;
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setContentType(detectContentType(hash).toString());
+
+        String rangeHeader = request.getHeader(HttpHeaders.RANGE);
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (rangeHeader != null && (ifRange == null || ifRange.equals(eTag))) {
+            List<HttpRange> ranges;
+            try {
+                ranges = HttpRange.parseRanges(rangeHeader);
+            } catch (IllegalArgumentException e) {
+                ranges = List.of(); //unparseable ranges are ignored
+            }
+            if (ranges.size() == 1) {
+                HttpRange range = ranges.get(0);
+                try {
+                    start = range.getRangeStart(length);
+                    end = range.getRangeEnd(length);
+                    if (start >= length) {
+                        throw new IllegalArgumentException("Range starts after the end of the blob");
+                    }
+                } catch (IllegalArgumentException e) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod()) || count == 0) {
+            return;
+        }
+
+        Optional<Path> file = blobStore.findFile(hash);
+        if (file.isPresent() && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            //tomcat sends the file itself once we return, straight from the page cache to the socket
+            request.setAttribute(SENDFILE_FILENAME, file.get().toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, start);
+            request.setAttribute(SENDFILE_END, end + 1);
+        } else if (file.isPresent()) {
+            try (FileChannel channel = FileChannel.open(file.get())) {
+                WritableByteChannel out = Channels.newChannel(response.getOutputStream());
+                long position = start;
+                while (position <= end) {
+                    long sent = channel.transferTo(position, end + 1 - position, out);
+                    if (sent == 0 && position >= channel.size()) {
+                        //shorter than its recorded size, truncated or being collected. transferTo would keep returning 0
+                        throw new EOFException("Blob " + hash + " ended at " + position + " of " + (end + 1) + " bytes");
+                    }
+                    position += sent;
+                }
+            }
+        } else {
+            try (InputStream in = blobStore.open(hash)) {
+                in.skipNBytes(start);
+                OutputStream out = response.getOutputStream();
+                byte[] buffer = new byte[8192];
+                long remaining = count;
+                while (remaining > 0) {
+                    int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (read < 0) {
+                        break;
+                    }
+                    out.write(buffer, 0, read);
+                    remaining -= read;
+                }
+            }
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String eTag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        //weak comparison is what If-None-Match asks for, so W/"hash" matches too
+        return Arrays.stream(ifNoneMatch.split(","))
+                .map(String::trim)
+                .anyMatch(candidate -> candidate.equals("*") || candidate.equals(eTag) || candidate.equals("W/" + eTag));
+    }
+
+    private MediaType detectContentType(String hash) throws IOException {
+        byte[] header;
+        try (InputStream in = blobStore.open(hash)) {
+            header = in.readNBytes(12);
+        }
+        if (startsWith(header, 0x89, 'P', 'N', 'G')) {
+            return MediaType.IMAGE_PNG;
+        }
+        if (startsWith(header, 0xFF, 0xD8, 0xFF)) {
+            return MediaType.IMAGE_JPEG;
+        }
+        if (startsWith(header, 'G', 'I', 'F', '8')) {
+            return MediaType.IMAGE_GIF;
+        }
+        if (startsWith(header, 'R', 'I', 'F', 'F') && header.length >= 12 && header[8] == 'W' && header[9] == 'E' && header[10] == 'B' && header[11] == 'P') {
+            return MediaType.parseMediaType("image/webp");
+        }
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+
+    private static boolean startsWith(byte[] bytes, int... prefix) {
+        if (bytes.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((bytes[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
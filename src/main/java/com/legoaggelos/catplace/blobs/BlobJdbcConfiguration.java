@@ -0,0 +1,73 @@
+package com.legoaggelos.catplace.blobs;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.convert.ReadingConverter;
+import org.springframework.data.convert.WritingConverter;
+import org.springframework.data.jdbc.repository.config.AbstractJdbcConfiguration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Maps every {@link Blob} property (post images, profile pictures) to the hash of its content in the {@link BlobStore},
+ * so the POST, CAT and CAT_PLACE_USER rows only carry a 64 character reference instead of the image itself.
+ */
+@Configuration
+public class BlobJdbcConfiguration extends AbstractJdbcConfiguration {
+    private final BlobStore blobStore;
+    private final ThumbnailPipeline thumbnailPipeline;
+
+    public BlobJdbcConfiguration(BlobStore blobStore, ThumbnailPipeline thumbnailPipeline) {
+        this.blobStore = blobStore;
+        this.thumbnailPipeline = thumbnailPipeline;
+    }
+
+    @Override
+    protected List<?> userConverters() {
+        return List.of(new BlobToHashConverter(blobStore, thumbnailPipeline), new HashToBlobConverter(blobStore));
+    }
+
+    @WritingConverter
+    static class BlobToHashConverter implements Converter<Blob, String> {
+        private final BlobStore blobStore;
+        private final ThumbnailPipeline thumbnailPipeline;
+
+        BlobToHashConverter(BlobStore blobStore, ThumbnailPipeline thumbnailPipeline) {
+            this.blobStore = blobStore;
+            this.thumbnailPipeline = thumbnailPipeline;
+        }
+
+        @Override
+        public String convert(Blob source) {
+            if (source instanceof StoredBlob storedBlob) {
+                return storedBlob.getHash(); //unchanged, no need to touch the disk
+            }
+            try (InputStream content = source.getBinaryStream()) {
+                String hash = blobStore.store(content);
+                thumbnailPipeline.enqueue(hash);
+                return hash;
+            } catch (IOException | SQLException e) {
+                throw new DataAccessResourceFailureException("Could not store blob", e);
+            }
+        }
+    }
+
+    @ReadingConverter
+    static class HashToBlobConverter implements Converter<String, Blob> {
+        private final BlobStore blobStore;
+
+        HashToBlobConverter(BlobStore blobStore) {
+            this.blobStore = blobStore;
+        }
+
+        @Override
+        public Blob convert(String source) {
+            return new StoredBlob(source, blobStore);
+        }
+    }
+}
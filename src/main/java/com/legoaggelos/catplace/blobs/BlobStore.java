@@ -0,0 +1,45 @@
+package com.legoaggelos.catplace.blobs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Content-addressed storage for binary data such as post images and profile pictures.
+ * Blobs are identified by the lowercase hex SHA-256 of their content, so storing identical bytes twice
+ * returns the same hash and keeps a single copy. Rows only keep that hash.
+ */
+public interface BlobStore {
+
+    /**
+     * Stores the content of the stream, returning its hash. If the same content is already stored, nothing new is written.
+     */
+    String store(InputStream content) throws IOException;
+
+    InputStream open(String hash) throws IOException;
+
+    long size(String hash) throws IOException;
+
+    boolean exists(String hash);
+
+    /**
+     * The file holding the blob, if this store keeps blobs as plain files. Lets downloads hand the file to the OS (sendfile) instead of copying it.
+     */
+    Optional<Path> findFile(String hash);
+
+    /**
+     * Hashes of every blob that was last stored before the cutoff, used by {@link BlobCollector} to find collection candidates.
+     */
+    List<String> findStoredBefore(Instant cutoff) throws IOException;
+
+    boolean delete(String hash) throws IOException;
+
+    /**
+     * Deletes the blob only if it still was last stored before the cutoff, checked right before deleting it. A candidate from
+     * {@link #findStoredBefore(Instant)} that was uploaded again since then is kept, its new row may not be committed yet.
+     */
+    boolean deleteIfStoredBefore(String hash, Instant cutoff) throws IOException;
+}
@@ -0,0 +1,83 @@
+package com.legoaggelos.catplace.blobs;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Blob;
+
+/**
+ * Takes images that arrive as raw bytes, a multipart part or an application/octet-stream body, and streams them
+ * straight into the {@link BlobStore}. What comes back only holds the hash, so saving the entity afterwards copies nothing.
+ */
+@Component
+public class BlobUploads {
+    private final BlobStore blobStore;
+    private final ThumbnailPipeline thumbnailPipeline;
+    private final long maxSize;
+
+    public BlobUploads(BlobStore blobStore, ThumbnailPipeline thumbnailPipeline, @Value("${spring.servlet.multipart.max-file-size:20MB}") DataSize maxSize) {
+        this.blobStore = blobStore;
+        this.thumbnailPipeline = thumbnailPipeline;
+        this.maxSize = maxSize.toBytes();
+    }
+
+    public Blob store(MultipartFile file) throws IOException {
+        //tomcat already enforced the size and spooled anything over the threshold to disk
+        try (InputStream in = file.getInputStream()) {
+            return stored(blobStore.store(in));
+        }
+    }
+
+    /**
+     * Stores a raw request body. Bodies over the multipart file limit are rejected too, so both upload paths share one limit.
+     */
+    public Blob store(InputStream body) throws IOException {
+        return stored(blobStore.store(new LimitedInputStream(body, maxSize)));
+    }
+
+    private Blob stored(String hash) {
+        thumbnailPipeline.enqueue(hash);
+        return new StoredBlob(hash, blobStore);
+    }
+
+    private static class LimitedInputStream extends InputStream {
+        private final InputStream in;
+        private final long limit;
+        private long read;
+
+        LimitedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        private void count(int n) {
+            read += n;
+            if (read > limit) {
+                throw new MaxUploadSizeExceededException(limit);
+            }
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.legoaggelos.catplace.blobs;
+
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.Optional;
+
+/**
+ * The IMAGE_DERIVATIVE table: which smaller versions of an image exist in the {@link BlobStore}.
+ * Derivatives are blobs like any other, so identical thumbnails of different uploads are only stored once.
+ */
+@Component
+public class ImageDerivatives {
+    private final JdbcClient jdbcClient;
+
+    public ImageDerivatives(JdbcClient jdbcClient) {
+        this.jdbcClient = jdbcClient;
+    }
+
+    /**
+     * The smallest derivative whose longest side is at least {@code size}. Empty means the original is the best fit,
+     * either because it is small itself or because its derivatives haven't been made yet.
+     */
+    public Optional<String> findSmallestAtLeast(String source, int size) {
+        return jdbcClient.sql("select DERIVATIVE from IMAGE_DERIVATIVE where SOURCE = :source and MAX_SIZE >= :size order by MAX_SIZE limit 1")
+                .param("source", source)
+                .param("size", size)
+                .query(String.class)
+                .optional();
+    }
+
+    public boolean existFor(String source) {
+        return jdbcClient.sql("select count(*) from IMAGE_DERIVATIVE where SOURCE = :source")
+                .param("source", source)
+                .query(Long.class)
+                .single() > 0;
+    }
+
+    public void save(String source, int maxSize, String derivative, long bytesSaved) {
+        jdbcClient.sql("merge into IMAGE_DERIVATIVE(SOURCE, MAX_SIZE, DERIVATIVE, BYTES_SAVED) key (SOURCE, MAX_SIZE) values (:source, :maxSize, :derivative, :bytesSaved)")
+                .param("source", source)
+                .param("maxSize", maxSize)
+                .param("derivative", derivative)
+                .param("bytesSaved", bytesSaved)
+                .update();
+    }
+
+    /**
+     * How many originals use this blob as a derivative, for {@link BlobCollector}.
+     */
+    public long countReferences(String derivative) {
+        return jdbcClient.sql("select count(*) from IMAGE_DERIVATIVE where DERIVATIVE = :derivative")
+                .param("derivative", derivative)
+                .query(Long.class)
+                .single();
+    }
+
+    /**
+     * Forgets the derivatives of a collected original. Their blobs become unreferenced and go in the next collection.
+     */
+    public int deleteBySource(String source) {
+        return jdbcClient.sql("delete from IMAGE_DERIVATIVE where SOURCE = :source")
+                .param("source", source)
+                .update();
+    }
+}
@@ -0,0 +1,179 @@
+package com.legoaggelos.catplace.blobs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+/**
+ * A read-only {@link Blob} for uploads that haven't reached the {@link BlobStore} yet.
+ * Small content stays in memory, anything over {@link #MEMORY_THRESHOLD} goes to a temporary file,
+ * so an upload never has to fit on the heap. The file is deleted on {@link #free()}, or once the blob is garbage collected.
+ */
+public class SpooledBlob implements Blob {
+    static final int MEMORY_THRESHOLD = 64 * 1024;
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    private final byte[] memory;
+    private final Path file;
+    private final long length;
+    private final Cleaner.Cleanable cleanable;
+
+    private SpooledBlob(byte[] memory, Path file, long length) {
+        this.memory = memory;
+        this.file = file;
+        this.length = length;
+        this.cleanable = file == null ? null : CLEANER.register(this, new DeleteFile(file));
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public byte[] getBytes(long pos, int length) throws SQLException {
+        try (InputStream in = getBinaryStream(pos, length)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new SQLException("Could not read spooled blob", e);
+        }
+    }
+
+    @Override
+    public InputStream getBinaryStream() throws SQLException {
+        if (memory != null) {
+            return new ByteArrayInputStream(memory);
+        }
+        try {
+            return Files.newInputStream(file);
+        } catch (IOException e) {
+            throw new SQLException("Could not read spooled blob", e);
+        }
+    }
+
+    @Override
+    public InputStream getBinaryStream(long pos, long length) throws SQLException {
+        InputStream in = getBinaryStream();
+        try {
+            in.skipNBytes(pos - 1); //blob positions start at 1
+        } catch (IOException e) {
+            throw new SQLException("Could not read spooled blob", e);
+        }
+        return new BoundedInputStream(in, length);
+    }
+
+    @Override
+    public long position(byte[] pattern, long start) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Spooled blobs can't be searched");
+    }
+
+    @Override
+    public long position(Blob pattern, long start) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Spooled blobs can't be searched");
+    }
+
+    @Override
+    public int setBytes(long pos, byte[] bytes) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Spooled blobs are immutable");
+    }
+
+    @Override
+    public int setBytes(long pos, byte[] bytes, int offset, int len) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Spooled blobs are immutable");
+    }
+
+    @Override
+    public OutputStream setBinaryStream(long pos) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Spooled blobs are immutable");
+    }
+
+    @Override
+    public void truncate(long len) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Spooled blobs are immutable");
+    }
+
+    @Override
+    public void free() {
+        if (cleanable != null) {
+            cleanable.clean();
+        }
+    }
+
+    /**
+     * Collects the content of a new {@link SpooledBlob}. Write everything, close it, then call {@link #toBlob()}.
+     */
+    public static class Writer extends OutputStream {
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private Path file;
+        private OutputStream out = memory;
+        private long length;
+
+        @Override
+        public void write(int b) throws IOException {
+            spillIfNeeded(1);
+            out.write(b);
+            length++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            spillIfNeeded(len);
+            out.write(b, off, len);
+            length += len;
+        }
+
+        private void spillIfNeeded(int incoming) throws IOException {
+            if (file != null || length + incoming <= MEMORY_THRESHOLD) {
+                return;
+            }
+            file = Files.createTempFile("catplace-upload-", ".tmp");
+            out = Files.newOutputStream(file);
+            memory.writeTo(out);
+            memory = null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+
+        public SpooledBlob toBlob() {
+            return file == null ? new SpooledBlob(memory.toByteArray(), null, length) : new SpooledBlob(null, file, length);
+        }
+
+        /**
+         * Closes the writer and deletes anything it spilled, for when the content turned out to be unusable.
+         */
+        public void discard() {
+            try {
+                close();
+                if (file != null) {
+                    Files.deleteIfExists(file);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    //must not reference the blob itself, or it would never become unreachable
+    private record DeleteFile(Path file) implements Runnable {
+        @Override
+        public void run() {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {
+                //it's in the temp directory, the OS will get to it eventually
+            }
+        }
+    }
+}
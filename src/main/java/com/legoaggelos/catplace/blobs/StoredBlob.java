@@ -0,0 +1,125 @@
+package com.legoaggelos.catplace.blobs;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+/**
+ * A read-only {@link Blob} that only holds the hash of something in the {@link BlobStore}.
+ * Nothing is read from disk until someone actually asks for the bytes.
+ * It is never inlined into JSON, the entities link to the /image or /picture endpoint instead.
+ */
+@JsonSerialize(using = StoredBlob.LinkedSerializer.class)
+public class StoredBlob implements Blob {
+    private final String hash;
+    private final BlobStore blobStore;
+
+    public StoredBlob(String hash, BlobStore blobStore) {
+        this.hash = hash;
+        this.blobStore = blobStore;
+    }
+
+    public String getHash() {
+        return hash;
+    }
+
+    @Override
+    public long length() throws SQLException {
+        try {
+            return blobStore.size(hash);
+        } catch (IOException e) {
+            throw new SQLException("Could not read blob " + hash, e);
+        }
+    }
+
+    @Override
+    public byte[] getBytes(long pos, int length) throws SQLException {
+        try (InputStream in = getBinaryStream(pos, length)) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new SQLException("Could not read blob " + hash, e);
+        }
+    }
+
+    @Override
+    public InputStream getBinaryStream() throws SQLException {
+        try {
+            return blobStore.open(hash);
+        } catch (IOException e) {
+            throw new SQLException("Could not read blob " + hash, e);
+        }
+    }
+
+    @Override
+    public InputStream getBinaryStream(long pos, long length) throws SQLException {
+        InputStream in = getBinaryStream();
+        try {
+            in.skipNBytes(pos - 1); //blob positions start at 1
+        } catch (IOException e) {
+            throw new SQLException("Could not read blob " + hash, e);
+        }
+        return new BoundedInputStream(in, length);
+    }
+
+    @Override
+    public long position(byte[] pattern, long start) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Stored blobs can't be searched");
+    }
+
+    @Override
+    public long position(Blob pattern, long start) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Stored blobs can't be searched");
+    }
+
+    @Override
+    public int setBytes(long pos, byte[] bytes) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Stored blobs are immutable");
+    }
+
+    @Override
+    public int setBytes(long pos, byte[] bytes, int offset, int len) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Stored blobs are immutable");
+    }
+
+    @Override
+    public OutputStream setBinaryStream(long pos) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Stored blobs are immutable");
+    }
+
+    @Override
+    public void truncate(long len) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Stored blobs are immutable");
+    }
+
+    @Override
+    public void free() {
+        //nothing is held in memory
+    }
+
+    /**
+     * Reports stored blobs as empty, so properties marked {@code @JsonInclude(NON_EMPTY)} leave them out.
+     */
+    static class LinkedSerializer extends StdSerializer<StoredBlob> {
+        LinkedSerializer() {
+            super(StoredBlob.class);
+        }
+
+        @Override
+        public boolean isEmpty(SerializerProvider provider, StoredBlob value) {
+            return true;
+        }
+
+        @Override
+        public void serialize(StoredBlob value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeNull();
+        }
+    }
+}
@@ -0,0 +1,271 @@
+package com.legoaggelos.catplace.blobs;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Makes smaller versions of uploaded images in the background, so feeds don't have to download full resolution pictures.
+ * Every image is decoded once with ImageIO and scaled to each of {@code catplace.thumbnails.sizes} that is smaller than it.
+ * Uploads are untrusted, so the size in pixels is read from the header first: images over {@code catplace.thumbnails.max-megapixels}
+ * are given up on, and the rest are decoded subsampled toward the largest size, never at full resolution if they don't need to be.
+ * Jobs are rows in THUMBNAIL_JOB first and only then handed to a small, bounded executor. If the executor is full or the
+ * application restarts, {@link #submitQueued()} picks the rows up again, so no upload is ever left without derivatives.
+ */
+@Component
+public class ThumbnailPipeline {
+    /**
+     * The size list endpoints link to. Any size works, the smallest derivative that is at least as big is served.
+     */
+    public static final int PREVIEW_SIZE = 128;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final Logger log = LoggerFactory.getLogger(ThumbnailPipeline.class);
+
+    private final BlobStore blobStore;
+    private final ImageDerivatives derivatives;
+    private final JdbcClient jdbcClient;
+    private final List<Integer> sizes;
+    private final long maxPixels;
+    private final ThreadPoolExecutor executor;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Timer processingTime;
+    private final Counter bytesSaved;
+    private final Counter failures;
+
+    public ThumbnailPipeline(BlobStore blobStore, ImageDerivatives derivatives, JdbcClient jdbcClient, MeterRegistry meterRegistry,
+                             @Value("${catplace.thumbnails.sizes:128,512}") List<Integer> sizes,
+                             @Value("${catplace.thumbnails.threads:2}") int threads,
+                             @Value("${catplace.thumbnails.queue-capacity:64}") int queueCapacity,
+                             @Value("${catplace.thumbnails.max-megapixels:50}") int maxMegapixels) {
+        this.blobStore = blobStore;
+        this.derivatives = derivatives;
+        this.jdbcClient = jdbcClient;
+        this.sizes = sizes.stream().sorted().toList();
+        this.maxPixels = maxMegapixels * 1_000_000L;
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "thumbnails-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("catplace.thumbnails.queue.depth", this, ThumbnailPipeline::queueDepth)
+                .description("Images waiting for their derivatives")
+                .register(meterRegistry);
+        this.processingTime = Timer.builder("catplace.thumbnails.processing")
+                .description("Time to decode an image and write all of its derivatives")
+                .register(meterRegistry);
+        this.bytesSaved = Counter.builder("catplace.thumbnails.bytes.saved")
+                .description("How much smaller the derivatives are than their originals, summed")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.failures = Counter.builder("catplace.thumbnails.failures")
+                .description("Attempts that threw, each job gets " + MAX_ATTEMPTS)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues derivatives for a freshly stored blob. Inside a transaction, the executor only gets the job once it commits.
+     */
+    public void enqueue(String source) {
+        if (derivatives.existFor(source)) {
+            return; //same bytes were uploaded before
+        }
+        jdbcClient.sql("merge into THUMBNAIL_JOB(SOURCE, ENQUEUED_AT) key (SOURCE) values (:source, :enqueuedAt)")
+                .param("source", source)
+                .param("enqueuedAt", OffsetDateTime.now(ZoneOffset.UTC))
+                .update();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    submit(source);
+                }
+            });
+        } else {
+            submit(source);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${catplace.thumbnails.poll-interval:PT30S}", initialDelayString = "${catplace.thumbnails.poll-interval:PT30S}")
+    public void submitQueued() {
+        List<String> queued = jdbcClient.sql("select SOURCE from THUMBNAIL_JOB order by ENQUEUED_AT limit :limit")
+                .param("limit", executor.getQueue().remainingCapacity() + executor.getMaximumPoolSize())
+                .query(String.class)
+                .list();
+        queued.forEach(this::submit);
+    }
+
+    private void submit(String source) {
+        if (!inFlight.add(source)) {
+            return; //already queued or running
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    process(source);
+                } finally {
+                    inFlight.remove(source);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.remove(source); //still in THUMBNAIL_JOB, submitQueued will get to it
+        }
+    }
+
+    /**
+     * Makes every derivative of one image and removes its job. Safe to call more than once for the same image.
+     */
+    public void process(String source) {
+        try {
+            processingTime.recordCallable(() -> {
+                makeDerivatives(source);
+                return null;
+            });
+            deleteJob(source);
+        } catch (Exception e) {
+            failures.increment();
+            jdbcClient.sql("update THUMBNAIL_JOB set ATTEMPTS = ATTEMPTS + 1 where SOURCE = :source")
+                    .param("source", source)
+                    .update();
+            int givenUp = jdbcClient.sql("delete from THUMBNAIL_JOB where SOURCE = :source and ATTEMPTS >= :maxAttempts")
+                    .param("source", source)
+                    .param("maxAttempts", MAX_ATTEMPTS)
+                    .update();
+            if (givenUp > 0) {
+                log.warn("Giving up on derivatives of blob {}, the original will be served instead", source, e);
+            } else {
+                log.info("Could not make derivatives of blob {}, will retry", source, e);
+            }
+        }
+    }
+
+    private void makeDerivatives(String source) throws IOException {
+        if (!blobStore.exists(source)) {
+            return; //collected before we got to it
+        }
+        BufferedImage image;
+        try (InputStream raw = blobStore.open(source); ImageInputStream in = ImageIO.createImageInputStream(raw)) {
+            image = decode(source, in);
+        }
+        if (image == null) {
+            return; //not an image ImageIO can decode or too big to, it is only ever served as is
+        }
+        long originalSize = blobStore.size(source);
+        int longestSide = Math.max(image.getWidth(), image.getHeight());
+        for (int size : sizes) {
+            if (size >= longestSide) {
+                break; //the original is already small enough
+            }
+            byte[] encoded = encode(scale(image, size));
+            if (encoded.length >= originalSize) {
+                continue; //can happen with small, well compressed originals
+            }
+            String derivative = blobStore.store(new ByteArrayInputStream(encoded));
+            derivatives.save(source, size, derivative, originalSize - encoded.length);
+            bytesSaved.increment(originalSize - encoded.length);
+        }
+    }
+
+    //null when there is no reader for it, or when it has more pixels than we are willing to decode
+    private BufferedImage decode(String source, ImageInputStream in) throws IOException {
+        Iterator<ImageReader> readers = in == null ? Collections.emptyIterator() : ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            return null;
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            if ((long) width * height > maxPixels) {
+                log.warn("Giving up on derivatives of blob {}, {}x{} is more than {} pixels", source, width, height, maxPixels);
+                return null;
+            }
+            //every row and column that no derivative needs is skipped while decoding, the decoded image is still at least as big as the largest size
+            int subsampling = Math.max(1, Math.max(width, height) / sizes.get(sizes.size() - 1));
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image, int size) {
+        double factor = (double) size / Math.max(image.getWidth(), image.getHeight());
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        BufferedImage scaled = new BufferedImage(width, height, image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return scaled;
+    }
+
+    //jpeg can't hold transparency, so those stay png
+    private static byte[] encode(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        String format = image.getColorModel().hasAlpha() ? "png" : "jpg";
+        if (!ImageIO.write(image, format, out)) {
+            throw new IOException("No ImageIO writer for " + format);
+        }
+        return out.toByteArray();
+    }
+
+    private void deleteJob(String source) {
+        jdbcClient.sql("delete from THUMBNAIL_JOB where SOURCE = :source")
+                .param("source", source)
+                .update();
+    }
+
+    private double queueDepth() {
+        return jdbcClient.sql("select count(*) from THUMBNAIL_JOB")
+                .query(Long.class)
+                .single();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow(); //whatever was running is still in THUMBNAIL_JOB
+    }
+}
@@ -1,20 +1,33 @@
 package com.legoaggelos.catplace.cats;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.legoaggelos.catplace.blobs.ThumbnailPipeline;
 import com.legoaggelos.catplace.security.deserializers.OffsetDateTimeDeserializer;
 import com.legoaggelos.catplace.security.deserializers.SerialBlobDeserializer;
 import org.springframework.data.annotation.Id;
 
-import javax.sql.rowset.serial.SerialBlob;
+import java.sql.Blob;
 import java.time.OffsetDateTime;
 
 public record Cat(@Id Long id,
                   String name,
                   @JsonDeserialize(using = OffsetDateTimeDeserializer.class) OffsetDateTime dateOfBirth,
                   String owner,
-                  @JsonDeserialize(using = SerialBlobDeserializer.class) SerialBlob profilePicture,
+                  @JsonInclude(JsonInclude.Include.NON_EMPTY) @JsonDeserialize(using = SerialBlobDeserializer.class) Blob profilePicture, //uploaded inline, downloaded from profilePictureUrl
                   String bio,
                   boolean isAlive
 ) {
 
+    @JsonProperty(value = "profilePictureUrl", access = JsonProperty.Access.READ_ONLY)
+    public String profilePictureUrl() {
+        return profilePicture == null || id == null ? null : "/cats/" + id + "/picture";
+    }
+
+    @JsonProperty(value = "profilePictureThumbnailUrl", access = JsonProperty.Access.READ_ONLY)
+    public String profilePictureThumbnailUrl() {
+        String profilePictureUrl = profilePictureUrl();
+        return profilePictureUrl == null ? null : profilePictureUrl + "?size=" + ThumbnailPipeline.PREVIEW_SIZE;
+    }
 }
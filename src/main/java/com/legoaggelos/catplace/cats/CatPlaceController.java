@@ -1,11 +1,18 @@
 package com.legoaggelos.catplace.cats;
 
+import com.legoaggelos.catplace.blobs.BlobDownloads;
+import com.legoaggelos.catplace.blobs.BlobUploads;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.security.Principal;
+import java.sql.Blob;
 import java.sql.SQLException;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
@@ -16,6 +23,7 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
@@ -26,7 +34,10 @@ import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.sql.rowset.serial.SerialBlob;
@@ -39,9 +50,13 @@ public class CatPlaceController {
 
 
     private final CatPlaceRepository repository;
+    private final BlobDownloads blobDownloads;
+    private final BlobUploads blobUploads;
 
-    private CatPlaceController(CatPlaceRepository repository) {
+    private CatPlaceController(CatPlaceRepository repository, BlobDownloads blobDownloads, BlobUploads blobUploads) {
         this.repository = repository;
+        this.blobDownloads = blobDownloads;
+        this.blobUploads = blobUploads;
     }
 
     @DeleteMapping("/fromOwner/{requestedOwner}")
@@ -82,6 +97,18 @@ public class CatPlaceController {
         return ResponseEntity.notFound().build();
     }
 
+    //?view=summary, without bios and pictures
+    @GetMapping(value = "/fromOwner/{requestedId}", params = "view=summary")
+    ResponseEntity<List<CatSummary>> findSummariesByOwner(Pageable pageable, @PathVariable String requestedId) {
+        List<CatSummary> cats = repository.findSummariesByOwner(requestedId,
+                PageRequest.of(
+                        pageable.getPageNumber(),
+                        pageable.getPageSize(),
+                        pageable.getSortOr(Sort.by(Sort.Direction.ASC, "name"))
+                )).getContent();
+        return !cats.isEmpty() ? ResponseEntity.ok(cats) : ResponseEntity.notFound().build();
+    }
+
     @GetMapping("/{requestedId}")
     ResponseEntity<Cat> findById(@PathVariable Long requestedId) {
         //everyone should be able to see each other's cats.
@@ -93,6 +120,16 @@ public class CatPlaceController {
         }
     }
 
+    @GetMapping("/{requestedId}/picture")
+    void findPictureById(@PathVariable Long requestedId, @RequestParam(required = false) Integer size, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Optional<Cat> cat = findCat(requestedId);
+        if (cat.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        blobDownloads.serve(cat.get().profilePicture(), size, request, response);
+    }
+
     private Optional<Cat> findCat(Long requestedId) {
         return repository.findById(requestedId);
     }
@@ -107,7 +144,27 @@ public class CatPlaceController {
 
     @PostMapping
     private ResponseEntity<Void> createCat(@RequestBody Cat newCatRequest, UriComponentsBuilder ucb, Authentication authentication, OutputStream outputStream){
-        SerialBlob profilePicture = newCatRequest.profilePicture();
+        return saveNewCat(newCatRequest, ucb, authentication);
+    }
+
+    //same as createCat, but the picture is its own part instead of base64 inside the json
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    private ResponseEntity<Void> createCatFromParts(@RequestPart("cat") Cat newCatRequest, @RequestPart(value = "profilePicture", required = false) MultipartFile profilePicture, UriComponentsBuilder ucb, Authentication authentication) throws IOException {
+        if (profilePicture == null || profilePicture.isEmpty()) {
+            return saveNewCat(newCatRequest, ucb, authentication); //gets the default picture
+        }
+        Cat withPicture = new Cat(null,
+                newCatRequest.name(),
+                newCatRequest.dateOfBirth(),
+                null,
+                blobUploads.store(profilePicture),
+                newCatRequest.bio(),
+                newCatRequest.isAlive());
+        return saveNewCat(withPicture, ucb, authentication);
+    }
+
+    private ResponseEntity<Void> saveNewCat(Cat newCatRequest, UriComponentsBuilder ucb, Authentication authentication) {
+        Blob profilePicture = newCatRequest.profilePicture();
         try {
             if (profilePicture == null) {
                 profilePicture = new SerialBlob(Files.readAllBytes(Path.of("4.jpg")));
@@ -142,6 +199,7 @@ public class CatPlaceController {
 
         OffsetDateTime dateOfBirth = null; //cant update date of birth!
         boolean isAlive = true; //if the cat is over 30, realistically, it is dead.
+        Blob profilePicture = catUpdate.profilePicture();
 
         //Here, if it is an admin, it allows them to override anything, while the regular user can't always
         if (admin) {
@@ -152,25 +210,52 @@ public class CatPlaceController {
             }
             dateOfBirth = catUpdate.dateOfBirth();
             isAlive =  catUpdate.isAlive();
+            if (profilePicture == null) {
+                profilePicture = catFromId.get().profilePicture();
+            }
         } else { //not admin
             if (cat == null) {
                 return ResponseEntity.notFound().build();
             }
             dateOfBirth = catUpdate.dateOfBirth(); //cant update date of birth!
             isAlive = OffsetDateTime.now().getYear()-catUpdate.dateOfBirth().getYear()<30 && catUpdate.isAlive(); //if the cat is over 30, realistically, it is dead.
+            if (profilePicture == null) {
+                profilePicture = cat.profilePicture();
+            }
         }
 
         Cat update = new Cat(requestedId,
                 catUpdate.name(),
                 dateOfBirth.withOffsetSameInstant(ZoneOffset.UTC),
                 authentication.getName(),
-                catUpdate.profilePicture(),
+                profilePicture, //responses only carry the url, so a missing picture means keep the current one
                 catUpdate.bio(),
                 isAlive);
         repository.save(update);
         return ResponseEntity.noContent().build();
     }
 
+    //the body is the picture itself
+    @PutMapping(value = "/{requestedId}/picture", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    private ResponseEntity<Void> putPicture(@PathVariable Long requestedId, InputStream picture, HttpServletRequest request, Authentication authentication) throws IOException {
+        Optional<Cat> cat = isAdmin(authentication) ? findCat(requestedId) : Optional.ofNullable(findCat(requestedId, authentication));
+        if (cat.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (request.getContentLengthLong() == 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        Cat update = new Cat(requestedId,
+                cat.get().name(),
+                cat.get().dateOfBirth(),
+                cat.get().owner(),
+                blobUploads.store(picture),
+                cat.get().bio(),
+                cat.get().isAlive());
+        repository.save(update);
+        return ResponseEntity.noContent().build();
+    }
+
     @DeleteMapping("/{id}")
     private ResponseEntity<Void> deleteCat(@PathVariable Long id, Authentication authentication) {
         boolean admin = isAdmin(authentication);
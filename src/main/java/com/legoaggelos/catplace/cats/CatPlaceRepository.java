@@ -2,6 +2,8 @@ package com.legoaggelos.catplace.cats;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
 import org.springframework.data.jdbc.repository.query.Modifying;
 import org.springframework.data.jdbc.repository.query.Query;
@@ -16,9 +18,15 @@ public interface CatPlaceRepository extends CrudRepository<Cat, Long>, PagingAnd
 
     Page<Cat> findByOwner(String owner, PageRequest pageRequest);
 
+    //only the columns of CatSummary are selected. Slice, not Page, so there is no count query next to it
+    Slice<CatSummary> findSummariesByOwner(String owner, Pageable pageable);
+
     boolean existsByIdAndOwner(Long id, String owner);
 
     @Modifying
     @Query("delete from cat where OWNER = :owner")
     void deleteAllByOwner(@Param("owner")String owner);
+
+    @Query("select count(*) from cat where PROFILE_PICTURE = :hash")
+    long countProfilePictureReferences(@Param("hash") String hash);
 }
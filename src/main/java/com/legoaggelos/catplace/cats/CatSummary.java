@@ -0,0 +1,22 @@
+package com.legoaggelos.catplace.cats;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.legoaggelos.catplace.blobs.ThumbnailPipeline;
+
+import java.sql.Blob;
+
+/**
+ * What a list of cats needs from a {@link Cat}: no bio, and the profile picture only as the stored handle, to link its thumbnail.
+ */
+public record CatSummary(Long id,
+                         String name,
+                         String owner,
+                         @JsonIgnore Blob profilePicture,
+                         boolean isAlive) {
+
+    @JsonProperty("profilePictureThumbnailUrl")
+    public String profilePictureThumbnailUrl() {
+        return profilePicture == null ? null : "/cats/" + id + "/picture?size=" + ThumbnailPipeline.PREVIEW_SIZE;
+    }
+}
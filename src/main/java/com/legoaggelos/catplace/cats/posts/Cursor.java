@@ -0,0 +1,65 @@
+package com.legoaggelos.catplace.cats.posts;
+
+import org.springframework.http.ResponseEntity;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Where a ?cursor= page of posts or comments starts: the time and id of the last one the client got, newest first.
+ * Repositories seek with {@code (TIME, ID) < (:time, :id)}, which costs the same on page 100 as on page 1 and needs no count.
+ * Clients only pass it back, so it is encoded to keep them from building their own.
+ */
+public record Cursor(OffsetDateTime time, long id) {
+    /**
+     * Before everything, for ?cursor= with no value. Nothing is posted in the year 9999.
+     */
+    public static final Cursor FIRST = new Cursor(OffsetDateTime.of(9999, 12, 31, 0, 0, 0, 0, ZoneOffset.UTC), Long.MAX_VALUE);
+    public static final String NEXT_CURSOR_HEADER = "Next-Cursor";
+
+    /**
+     * Empty if the cursor is not one we handed out.
+     */
+    public static Optional<Cursor> parse(String encoded) {
+        if (encoded.isEmpty()) {
+            return Optional.of(FIRST);
+        }
+        try {
+            String[] parts = new String(Base64.getUrlDecoder().decode(encoded), StandardCharsets.UTF_8).split(",", 2);
+            if (parts.length != 2) {
+                return Optional.empty();
+            }
+            return Optional.of(new Cursor(Instant.parse(parts[0]).atOffset(ZoneOffset.UTC), Long.parseLong(parts[1])));
+        } catch (IllegalArgumentException | DateTimeParseException e) { //NumberFormatException is an IllegalArgumentException
+            return Optional.empty();
+        }
+    }
+
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString((time.toInstant() + "," + id).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Answers with up to {@code size} of the rows, which were fetched with a limit of {@code size + 1}.
+     * Getting the extra row means there is more, and the last row sent is where the next page starts.
+     */
+    public static <T> ResponseEntity<List<T>> respond(List<T> rows, int size, Function<T, Cursor> cursorOf) {
+        if (rows.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        if (rows.size() <= size) {
+            return ResponseEntity.ok(rows);
+        }
+        List<T> page = rows.subList(0, size);
+        return ResponseEntity.ok()
+                .header(NEXT_CURSOR_HEADER, cursorOf.apply(page.get(size - 1)).encode())
+                .body(page);
+    }
+}
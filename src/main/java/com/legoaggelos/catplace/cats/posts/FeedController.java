@@ -0,0 +1,44 @@
+package com.legoaggelos.catplace.cats.posts;
+
+import com.legoaggelos.catplace.likehandling.LikeCounters;
+import org.springframework.data.domain.Pageable;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@RestController
+@RequestMapping("/feed")
+public class FeedController {
+    private final Timeline timeline;
+    private final PostRepository repository;
+    private final LikeCounters likeCounters;
+
+    public FeedController(Timeline timeline, PostRepository repository, LikeCounters likeCounters) {
+        this.timeline = timeline;
+        this.repository = repository;
+        this.likeCounters = likeCounters;
+    }
+
+    //newest approved posts of everyone, in the order they were approved. One lookup by primary key per page
+    @GetMapping
+    private ResponseEntity<List<Post>> getFeed(Pageable pageable) {
+        List<Long> ids = timeline.newest(pageable.getOffset(), pageable.getPageSize());
+        if (ids.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        Map<Long, Post> posts = repository.findByIdInAndIsApproved(ids, true).stream()
+                .collect(Collectors.toMap(Post::id, Function.identity()));
+        return ResponseEntity.ok(ids.stream()
+                .map(posts::get)
+                .filter(Objects::nonNull) //deleted along with their cat or owner since they were approved
+                .map(post -> PendingLikes.addTo(post, likeCounters))
+                .toList());
+    }
+}
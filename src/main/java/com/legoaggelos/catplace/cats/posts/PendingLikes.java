@@ -0,0 +1,27 @@
+package com.legoaggelos.catplace.cats.posts;
+
+import com.legoaggelos.catplace.likehandling.LikeCounters;
+
+/**
+ * Adds the likes {@link LikeCounters} hasn't written yet to posts read from the database, for every endpoint that returns them.
+ */
+final class PendingLikes {
+    private PendingLikes() {
+    }
+
+    static Post addTo(Post post, LikeCounters likeCounters) {
+        long pending = likeCounters.pendingPostLikes(post.id());
+        if (pending == 0) {
+            return post;
+        }
+        return new Post(post.id(), post.image(), Math.max(0, post.likeCount() + pending), post.catOwner(), post.userOwner(), post.desc(), post.uploadDate(), post.isApproved(), post.commentCount());
+    }
+
+    static PostSummary addTo(PostSummary post, LikeCounters likeCounters) {
+        long pending = likeCounters.pendingPostLikes(post.id());
+        if (pending == 0) {
+            return post;
+        }
+        return new PostSummary(post.id(), post.image(), Math.max(0, post.likeCount() + pending), post.catOwner(), post.userOwner(), post.uploadDate(), post.isApproved(), post.commentCount());
+    }
+}
@@ -1,29 +1,47 @@
 package com.legoaggelos.catplace.cats.posts;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.legoaggelos.catplace.blobs.ThumbnailPipeline;
 import com.legoaggelos.catplace.security.deserializers.OffsetDateTimeDeserializer;
 
 import com.legoaggelos.catplace.security.deserializers.SerialBlobDeserializer;
 import org.h2.jdbc.JdbcBlob;
 import org.springframework.data.annotation.Id;
 
-import javax.sql.rowset.serial.SerialBlob;
+import java.sql.Blob;
 import java.time.OffsetDateTime;
 import java.util.List;
 
 public record Post(@Id Long id,
-                   @JsonDeserialize(using = SerialBlobDeserializer.class) SerialBlob image,
+                   @JsonInclude(JsonInclude.Include.NON_EMPTY) @JsonDeserialize(using = SerialBlobDeserializer.class) Blob image, //uploaded inline, downloaded from imageUrl
                    Long likeCount,
                    Long catOwner,
                    String userOwner,
                    String desc,
                    @JsonDeserialize(using = OffsetDateTimeDeserializer.class) OffsetDateTime uploadDate,
-                   Boolean isApproved) {
-    public Post(Long id, SerialBlob image, Long catOwner, String userOwner, String desc, OffsetDateTime uploadDate, boolean isApproved) {
+                   Boolean isApproved,
+                   Long commentCount) { //kept by CommentCounts, replies included
+    public Post(Long id, Blob image, Long likeCount, Long catOwner, String userOwner, String desc, OffsetDateTime uploadDate, Boolean isApproved) {
+        this(id, image, likeCount, catOwner, userOwner, desc, uploadDate, isApproved, 0L);
+    }
+    public Post(Long id, Blob image, Long catOwner, String userOwner, String desc, OffsetDateTime uploadDate, boolean isApproved) {
         this(id, image,0L, catOwner, userOwner, desc, uploadDate, isApproved);
     }
-    public Post(Long id, Long likeCount, SerialBlob image, Long catOwner, String userOwner, String desc, OffsetDateTime uploadDate) {
+    public Post(Long id, Long likeCount, Blob image, Long catOwner, String userOwner, String desc, OffsetDateTime uploadDate) {
         this(id, image, likeCount, catOwner, userOwner, desc, uploadDate, null);
     }
-}
\ No newline at end of file
+
+    @JsonProperty(value = "imageUrl", access = JsonProperty.Access.READ_ONLY)
+    public String imageUrl() {
+        return image == null || id == null ? null : "/catposts/" + id + "/image";
+    }
+
+    @JsonProperty(value = "thumbnailUrl", access = JsonProperty.Access.READ_ONLY)
+    public String thumbnailUrl() {
+        String imageUrl = imageUrl();
+        return imageUrl == null ? null : imageUrl + "?size=" + ThumbnailPipeline.PREVIEW_SIZE;
+    }
+}
\ No newline at end of file
@@ -1,16 +1,28 @@
 package com.legoaggelos.catplace.cats.posts;
 
+import com.legoaggelos.catplace.blobs.BlobDownloads;
+import com.legoaggelos.catplace.blobs.BlobUploads;
+import com.legoaggelos.catplace.likehandling.LikeCounters;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.time.Instant;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
@@ -19,30 +31,60 @@ import static com.legoaggelos.catplace.security.util.AdminCertifier.isAdmin;
 @RestController
 @RequestMapping("/catposts")
 public class PostController {
+    private static final int MAX_MODERATED = 5000;
     private final PostRepository repository;
+    private final BlobDownloads blobDownloads;
+    private final BlobUploads blobUploads;
+    private final LikeCounters likeCounters;
+    private final Timeline timeline;
+    private final TransactionTemplate transactionTemplate;
 
-    public PostController(PostRepository repository) {
+    public PostController(PostRepository repository, BlobDownloads blobDownloads, BlobUploads blobUploads, LikeCounters likeCounters, Timeline timeline,
+                          TransactionTemplate transactionTemplate) {
         this.repository = repository;
+        this.blobDownloads = blobDownloads;
+        this.blobUploads = blobUploads;
+        this.likeCounters = likeCounters;
+        this.timeline = timeline;
+        this.transactionTemplate = transactionTemplate;
     }
 
     @GetMapping("/{requestedId}")
     private ResponseEntity<Post> findById(@PathVariable long requestedId, Authentication authentication) {
+        Optional<Post> post = findVisiblePost(requestedId, authentication);
+        if (post.isPresent()) {
+            return ResponseEntity.ok(withPendingLikes(post.get()));
+        } else {
+            return ResponseEntity.notFound().build();
+        }
+    }
 
-        Optional<Post> post = repository.findById(requestedId);
+    @GetMapping("/{requestedId}/image")
+    private void findImageById(@PathVariable long requestedId, @RequestParam(required = false) Integer size, Authentication authentication,
+                               HttpServletRequest request, HttpServletResponse response) throws IOException {
+        //same visibility as the post itself, an unapproved post's image shouldn't leak through here
+        Optional<Post> post = findVisiblePost(requestedId, authentication);
         if (post.isEmpty()) {
-            return ResponseEntity.notFound().build();
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
         }
+        blobDownloads.serve(post.get().image(), size, request, response);
+    }
+
+    //hidden and missing posts look the same, and neither is read
+    private Optional<Post> findVisiblePost(long requestedId, Authentication authentication) {
         if (authentication == null) {
-            return post.get().isApproved() ? ResponseEntity.ok(post.get()) : ResponseEntity.notFound().build();
-        }
-        String catOwner = post.get().userOwner();
-        String username = authentication.getName();
-        boolean admin = isAdmin(authentication);
-        if ((catOwner.equals(username) || admin) || post.get().isApproved()) {
-            return ResponseEntity.ok(post.get());
-        } else {
-            return ResponseEntity.notFound().build();
+            return repository.findVisibleById(requestedId, null, false);
         }
+        return repository.findVisibleById(requestedId, authentication.getName(), isAdmin(authentication));
+    }
+
+    private Post withPendingLikes(Post post) {
+        return PendingLikes.addTo(post, likeCounters);
+    }
+
+    private PostSummary withPendingLikes(PostSummary post) {
+        return PendingLikes.addTo(post, likeCounters);
     }
 
     private List<Post> getAllApprovedPostsByCatId(long catId, Pageable pageable) {
@@ -51,7 +93,7 @@ public class PostController {
                         pageable.getPageNumber(),
                         pageable.getPageSize(),
                         pageable.getSortOr(Sort.by(Sort.Direction.DESC, "uploadDate"))
-                )).getContent();
+                )).map(this::withPendingLikes).getContent();
     }
 
     private List<Post> getAllPostsByCatId(long catId, Pageable pageable) {
@@ -60,7 +102,7 @@ public class PostController {
                         pageable.getPageNumber(),
                         pageable.getPageSize(),
                         pageable.getSortOr(Sort.by(Sort.Direction.DESC, "uploadDate"))
-                )).getContent();
+                )).map(this::withPendingLikes).getContent();
     }
 
     private List<Post> getAllApprovedPostsByUserId(String username, Pageable pageable) {
@@ -69,7 +111,7 @@ public class PostController {
                         pageable.getPageNumber(),
                         pageable.getPageSize(),
                         pageable.getSortOr(Sort.by(Sort.Direction.DESC, "uploadDate"))
-                )).getContent();
+                )).map(this::withPendingLikes).getContent();
     }
 
     private List<Post> getAllPostsByUserId(String username, Pageable pageable) {
@@ -78,7 +120,7 @@ public class PostController {
                         pageable.getPageNumber(),
                         pageable.getPageSize(),
                         pageable.getSortOr(Sort.by(Sort.Direction.DESC, "uploadDate"))
-                )).getContent();
+                )).map(this::withPendingLikes).getContent();
     }
 
     @GetMapping("/fromCatId/{requestedId}")
@@ -117,6 +159,79 @@ public class PostController {
         return !posts.isEmpty() ? ResponseEntity.ok(posts) : ResponseEntity.notFound().build();
     }
 
+    //?view=summary, same visibility as findByCatId
+    @GetMapping(value = "/fromCatId/{requestedId}", params = "view=summary")
+    private ResponseEntity<List<PostSummary>> findSummariesByCatId(@PathVariable long requestedId, Pageable pageable, Authentication authentication) {
+        boolean seesUnapproved = authentication != null && (isAdmin(authentication) || repository.existsByIdAndUserOwner(requestedId, authentication.getName()));
+        List<PostSummary> posts = (seesUnapproved
+                ? repository.findSummariesByCatOwner(requestedId, newestFirst(pageable))
+                : repository.findSummariesByCatOwnerAndIsApproved(requestedId, true, newestFirst(pageable))).map(this::withPendingLikes).getContent();
+        return !posts.isEmpty() ? ResponseEntity.ok(posts) : ResponseEntity.notFound().build();
+    }
+
+    //?view=summary, same visibility as findByOwnerId
+    @GetMapping(value = "/fromOwnerId/{requestedId}", params = "view=summary")
+    private ResponseEntity<List<PostSummary>> findSummariesByOwnerId(@PathVariable String requestedId, Pageable pageable, Authentication authentication) {
+        boolean seesUnapproved = authentication != null && (isAdmin(authentication) || authentication.getName().equals(requestedId));
+        List<PostSummary> posts = (seesUnapproved
+                ? repository.findSummariesByUserOwner(requestedId, newestFirst(pageable))
+                : repository.findSummariesByUserOwnerAndIsApproved(requestedId, true, newestFirst(pageable))).map(this::withPendingLikes).getContent();
+        return !posts.isEmpty() ? ResponseEntity.ok(posts) : ResponseEntity.notFound().build();
+    }
+
+    //?cursor=, the same posts as findByCatId, but seeking past the last one the client got instead of counting an offset. Always newest first
+    @GetMapping(value = "/fromCatId/{requestedId}", params = "cursor")
+    private ResponseEntity<List<Post>> findByCatIdAfter(@PathVariable long requestedId, @RequestParam(defaultValue = "") String cursor, Pageable pageable, Authentication authentication) {
+        Optional<Cursor> after = Cursor.parse(cursor);
+        if (after.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        boolean seesUnapproved = authentication != null && (isAdmin(authentication) || repository.existsByIdAndUserOwner(requestedId, authentication.getName()));
+        List<Post> posts = repository.findByCatOwnerBefore(requestedId, seesUnapproved, after.get().time(), after.get().id(), pageable.getPageSize() + 1);
+        return Cursor.respond(posts.stream().map(this::withPendingLikes).toList(), pageable.getPageSize(), post -> new Cursor(post.uploadDate(), post.id()));
+    }
+
+    @GetMapping(value = "/fromOwnerId/{requestedId}", params = "cursor")
+    private ResponseEntity<List<Post>> findByOwnerIdAfter(@PathVariable String requestedId, @RequestParam(defaultValue = "") String cursor, Pageable pageable, Authentication authentication) {
+        Optional<Cursor> after = Cursor.parse(cursor);
+        if (after.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        boolean seesUnapproved = authentication != null && (isAdmin(authentication) || authentication.getName().equals(requestedId));
+        List<Post> posts = repository.findByUserOwnerBefore(requestedId, seesUnapproved, after.get().time(), after.get().id(), pageable.getPageSize() + 1);
+        return Cursor.respond(posts.stream().map(this::withPendingLikes).toList(), pageable.getPageSize(), post -> new Cursor(post.uploadDate(), post.id()));
+    }
+
+    @GetMapping(value = "/fromCatId/{requestedId}", params = {"view=summary", "cursor"})
+    private ResponseEntity<List<PostSummary>> findSummariesByCatIdAfter(@PathVariable long requestedId, @RequestParam(defaultValue = "") String cursor, Pageable pageable, Authentication authentication) {
+        Optional<Cursor> after = Cursor.parse(cursor);
+        if (after.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        boolean seesUnapproved = authentication != null && (isAdmin(authentication) || repository.existsByIdAndUserOwner(requestedId, authentication.getName()));
+        List<PostSummary> posts = repository.findSummariesByCatOwnerBefore(requestedId, seesUnapproved, after.get().time(), after.get().id(), pageable.getPageSize() + 1);
+        return Cursor.respond(posts.stream().map(this::withPendingLikes).toList(), pageable.getPageSize(), post -> new Cursor(post.uploadDate(), post.id()));
+    }
+
+    @GetMapping(value = "/fromOwnerId/{requestedId}", params = {"view=summary", "cursor"})
+    private ResponseEntity<List<PostSummary>> findSummariesByOwnerIdAfter(@PathVariable String requestedId, @RequestParam(defaultValue = "") String cursor, Pageable pageable, Authentication authentication) {
+        Optional<Cursor> after = Cursor.parse(cursor);
+        if (after.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        boolean seesUnapproved = authentication != null && (isAdmin(authentication) || authentication.getName().equals(requestedId));
+        List<PostSummary> posts = repository.findSummariesByUserOwnerBefore(requestedId, seesUnapproved, after.get().time(), after.get().id(), pageable.getPageSize() + 1);
+        return Cursor.respond(posts.stream().map(this::withPendingLikes).toList(), pageable.getPageSize(), post -> new Cursor(post.uploadDate(), post.id()));
+    }
+
+    private static Pageable newestFirst(Pageable pageable) {
+        return PageRequest.of(
+                pageable.getPageNumber(),
+                pageable.getPageSize(),
+                pageable.getSortOr(Sort.by(Sort.Direction.DESC, "uploadDate"))
+        );
+    }
+
     @GetMapping
     private ResponseEntity<List<Post>> findAll(Pageable pageable, Authentication authentication) {
         return findByOwnerId(authentication.getName(), pageable, authentication);
@@ -135,6 +250,9 @@ public class PostController {
                 Instant.now().atOffset(ZoneOffset.UTC),
                 admin && newPostRequest.isApproved() ? true : null); //if the user isnt an admin, false, otherwise, their choice
         Post savedPost = repository.save(request);
+        if (Boolean.TRUE.equals(savedPost.isApproved())) {
+            timeline.add(savedPost.id());
+        }
         URI locationOfNewPost = ucb
                 .path("/catposts/{id}")
                 .buildAndExpand(savedPost.id())
@@ -142,11 +260,40 @@ public class PostController {
         return ResponseEntity.created(locationOfNewPost).build();
     }
 
+    //same as createPost, but the image is its own part instead of base64 inside the json
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    private ResponseEntity<Void> createPostFromParts(@RequestPart("post") Post newPostRequest, @RequestPart("image") MultipartFile image, UriComponentsBuilder ucb, Authentication authentication) throws IOException {
+        if (image.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        Post withImage = new Post(null,
+                blobUploads.store(image),
+                0L,
+                newPostRequest.catOwner(),
+                null,
+                newPostRequest.desc(),
+                null,
+                Boolean.TRUE.equals(newPostRequest.isApproved()));
+        return createPost(withImage, ucb, authentication);
+    }
+
+    //the body is the image itself, the little metadata a post has goes in the query string
+    @PostMapping(consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    private ResponseEntity<Void> createPostFromImage(@RequestParam Long catOwner, @RequestParam(required = false) String desc, @RequestParam(defaultValue = "false") boolean isApproved,
+                                                     InputStream image, HttpServletRequest request, UriComponentsBuilder ucb, Authentication authentication) throws IOException {
+        if (request.getContentLengthLong() == 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        Post withImage = new Post(null, blobUploads.store(image), 0L, catOwner, null, desc, null, isApproved);
+        return createPost(withImage, ucb, authentication);
+    }
+
     @DeleteMapping("/{requestedId}")
     private ResponseEntity<Void> deletePost(@PathVariable Long requestedId, Authentication authentication) {
         boolean admin = isAdmin(authentication);
         if (admin && repository.existsById(requestedId) || repository.existsByIdAndUserOwner(requestedId, authentication.getName())) {
             repository.deleteById(requestedId);
+            timeline.remove(requestedId);
             return ResponseEntity.noContent().build();
         }
         return ResponseEntity.notFound().build();
@@ -159,7 +306,12 @@ public class PostController {
         //requestedId is catId. If a post exists by a cat and by the principal, that means the principal owns the cat.
         boolean owns = repository.existsByCatOwnerAndUserOwner(requestedId, authentication.getName());
         if (admin && repository.existsByCatOwner(requestedId) || owns) {
-            Long amountDeleted = repository.deleteAllByCatOwner(requestedId);
+            List<Long> deletedIds = new ArrayList<>();
+            Long amountDeleted = transactionTemplate.execute(status -> {
+                deletedIds.addAll(repository.findIdsByCatOwner(requestedId));
+                return repository.deleteAllByCatOwner(requestedId);
+            });
+            timeline.removeAll(deletedIds); //once committed. Their TIMELINE rows cascaded, the ones in memory have to go too
             if (amountDeleted.equals(0)) {
                 return ResponseEntity.notFound().build();
             }
@@ -172,7 +324,12 @@ public class PostController {
     private ResponseEntity<Void> deletePostsFromUserOwner(@PathVariable String requestedId, Authentication authentication) {
         boolean admin = isAdmin(authentication);
         if (admin && repository.existsByUserOwner(requestedId) || requestedId.equals(authentication.getName())) {
-            Long amountDeleted = repository.deleteAllByUserOwner(requestedId);
+            List<Long> deletedIds = new ArrayList<>();
+            Long amountDeleted = transactionTemplate.execute(status -> {
+                deletedIds.addAll(repository.findIdsByUserOwner(requestedId));
+                return repository.deleteAllByUserOwner(requestedId);
+            });
+            timeline.removeAll(deletedIds);
             if (amountDeleted.equals(0)) {
                 return ResponseEntity.notFound().build();
             }
@@ -181,7 +338,86 @@ public class PostController {
         return ResponseEntity.notFound().build();
     }
 
-    //Behavior: if not owner, update only like count, if owner, update only desc, if admin change everything the non-like Longs and userOwner, notably isApproved
+    //the moderation queue for admins: posts nobody approved or rejected yet, newest first, paged like ?cursor= everywhere else
+    @GetMapping("/pending")
+    private ResponseEntity<List<Post>> findPending(@RequestParam(defaultValue = "") String cursor, Pageable pageable, Authentication authentication) {
+        if (!isAdmin(authentication)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        Optional<Cursor> after = Cursor.parse(cursor);
+        if (after.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<Post> posts = repository.findPendingBefore(after.get().time(), after.get().id(), pageable.getPageSize() + 1);
+        return Cursor.respond(posts.stream().map(this::withPendingLikes).toList(), pageable.getPageSize(), post -> new Cursor(post.uploadDate(), post.id()));
+    }
+
+    //approves or rejects every post in the body with one UPDATE, and answers how many changed
+    @PatchMapping("/pending")
+    private ResponseEntity<Integer> moderate(@RequestBody List<Long> requestedIds, @RequestParam boolean isApproved, Authentication authentication) {
+        if (!isAdmin(authentication)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (requestedIds.size() > MAX_MODERATED) {
+            return ResponseEntity.badRequest().header("message", "At most " + MAX_MODERATED + " posts can be moderated at once.").build();
+        }
+        if (requestedIds.isEmpty()) {
+            return ResponseEntity.ok(0);
+        }
+        //found and updated in one transaction, so the timeline gets exactly the posts this request changed
+        List<Long> changed = transactionTemplate.execute(status -> {
+            List<Long> changing = repository.findIdsToModerate(requestedIds, isApproved);
+            if (!changing.isEmpty()) {
+                repository.updateIsApprovedIn(changing, isApproved);
+            }
+            return changing;
+        });
+        if (isApproved) {
+            timeline.addAll(changed);
+        } else {
+            timeline.removeAll(changed);
+        }
+        return ResponseEntity.ok(changed.size());
+    }
+
+    //admin corrections only, the count can't go below 0. Likes themselves go through /likedPost and are counted by LikeCounters
+    @PatchMapping("/{requestedId}/likeCount")
+    private ResponseEntity<Void> addToLikeCount(@PathVariable Long requestedId, @RequestParam long delta, Authentication authentication) {
+        if (!isAdmin(authentication)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return repository.addToLikeCount(requestedId, delta) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    //only the fields in the body change: desc if it's the caller's post, isApproved if the caller is an admin. Everything else is ignored, like in updatePost.
+    //Posts the caller can't see are 404, as for GET, and a field the caller may not change is 403, with nothing changed
+    @PatchMapping("/{requestedId}")
+    private ResponseEntity<Void> patchPost(@PathVariable Long requestedId, @RequestBody Post postPatch, Authentication authentication) {
+        boolean admin = isAdmin(authentication);
+        Optional<Post> post = repository.findVisibleById(requestedId, authentication.getName(), admin);
+        if (post.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        boolean owns = post.get().userOwner().equals(authentication.getName());
+        if (postPatch.desc() != null && !owns || postPatch.isApproved() != null && !admin) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (postPatch.desc() != null && !repository.updateDesc(requestedId, authentication.getName(), postPatch.desc())) {
+            return ResponseEntity.notFound().build(); //deleted since
+        }
+        if (postPatch.isApproved() != null) {
+            boolean changed = repository.updateIsApproved(requestedId, postPatch.isApproved());
+            if (changed && postPatch.isApproved()) {
+                timeline.add(requestedId);
+            } else if (changed) {
+                timeline.remove(requestedId);
+            }
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    //Behavior: if owner, update only desc, if admin change everything the non-like Longs and userOwner, notably isApproved, and the like count.
+    //Everyone else's likes go through /likedPost, so a PUT from them changes nothing
     @PutMapping("/{requestedId}")
     private ResponseEntity<Void> updatePost(@PathVariable Long requestedId, @RequestBody Post postUpdate, Authentication authentication) {
         Optional<Post> postOptional = repository.findById(requestedId);
@@ -191,17 +427,31 @@ public class PostController {
 
         boolean admin = isAdmin(authentication);
         boolean owns = repository.existsByIdAndUserOwner(requestedId, authentication.getName());
+        if (!admin) {
+            if (owns) {
+                repository.updateDesc(requestedId, authentication.getName(), postUpdate.desc()); //doesn't touch LIKE_COUNT, which LikeCounters may be writing
+            }
+            return ResponseEntity.noContent().build();
+        }
         Post post = postOptional.get();
         Post update = new Post(requestedId,
                 post.image(), //no one can update image. If an admin doesnt like it, they can delete it.
-                (admin || (!owns && Math.abs(postUpdate.likeCount() - post.likeCount()) <= 1 && postUpdate.likeCount() >= 0)) ? postUpdate.likeCount() : post.likeCount(), //only admin and not-owner can update like count
+                postUpdate.likeCount(), //only admin can correct the like count
                 post.catOwner(),
                 post.userOwner(),
                 (owns) ? postUpdate.desc() : post.desc(), //admin shouldnt update post desc
-                (admin ? postUpdate.uploadDate() : post.uploadDate()).withOffsetSameInstant(ZoneOffset.UTC), //admin can fix the upload date if it is wrong because of my potentially crappy code
-                admin ? postUpdate.isApproved() : post.isApproved()
+                postUpdate.uploadDate().withOffsetSameInstant(ZoneOffset.UTC), //admin can fix the upload date if it is wrong because of my potentially crappy code
+                postUpdate.isApproved(),
+                post.commentCount() //CommentCounts' to keep
         );
         repository.save(update);
+        boolean wasApproved = Boolean.TRUE.equals(post.isApproved());
+        boolean isApproved = Boolean.TRUE.equals(update.isApproved());
+        if (isApproved && !wasApproved) {
+            timeline.add(requestedId);
+        } else if (wasApproved && !isApproved) {
+            timeline.remove(requestedId);
+        }
         return ResponseEntity.noContent().build();
     }
 }
@@ -1,7 +1,7 @@
 package com.legoaggelos.catplace.cats.posts;
 
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 
 
 import org.springframework.data.jdbc.repository.query.Modifying;
@@ -11,18 +11,55 @@ import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 @Repository
 public interface PostRepository extends CrudRepository<Post, Long>, PagingAndSortingRepository<Post, Long> {
-    Page<Post> findByCatOwner(Long catOwner, Pageable pageable);
-    Page<Post> findByUserOwner(String userOwner, Pageable pageable);
-    Page<Post> findByCatOwnerAndIsApproved(Long catOwner, boolean isApproved, Pageable pageable);
-    Page<Post> findByUserOwnerAndIsApproved(String userOwner, boolean isApproved, Pageable pageable);
+    //Slice, not Page: nobody reads the total, so there is no count query
+    Slice<Post> findByCatOwner(Long catOwner, Pageable pageable);
+    Slice<Post> findByUserOwner(String userOwner, Pageable pageable);
+    Slice<Post> findByCatOwnerAndIsApproved(Long catOwner, boolean isApproved, Pageable pageable);
+    Slice<Post> findByUserOwnerAndIsApproved(String userOwner, boolean isApproved, Pageable pageable);
+
+    //same as above, but only the columns of PostSummary are selected
+    Slice<PostSummary> findSummariesByCatOwner(Long catOwner, Pageable pageable);
+    Slice<PostSummary> findSummariesByUserOwner(String userOwner, Pageable pageable);
+    Slice<PostSummary> findSummariesByCatOwnerAndIsApproved(Long catOwner, boolean isApproved, Pageable pageable);
+    Slice<PostSummary> findSummariesByUserOwnerAndIsApproved(String userOwner, boolean isApproved, Pageable pageable);
+
+    //the posts of a page of the Timeline, in no particular order
+    List<Post> findByIdInAndIsApproved(Collection<Long> ids, boolean isApproved);
+
+    //?cursor= pages, newest first, starting after the Cursor. Unapproved posts are only there with withUnapproved
+    @Query("select * from POST where CAT_OWNER = :catOwner and (IS_APPROVED = TRUE or :withUnapproved) and (UPLOAD_DATE, ID) < (:time, :id) order by UPLOAD_DATE desc, ID desc limit :limit")
+    List<Post> findByCatOwnerBefore(@Param("catOwner") Long catOwner, @Param("withUnapproved") boolean withUnapproved, @Param("time") OffsetDateTime time, @Param("id") long id, @Param("limit") int limit);
+
+    @Query("select * from POST where USER_OWNER = :userOwner and (IS_APPROVED = TRUE or :withUnapproved) and (UPLOAD_DATE, ID) < (:time, :id) order by UPLOAD_DATE desc, ID desc limit :limit")
+    List<Post> findByUserOwnerBefore(@Param("userOwner") String userOwner, @Param("withUnapproved") boolean withUnapproved, @Param("time") OffsetDateTime time, @Param("id") long id, @Param("limit") int limit);
+
+    @Query("select ID, IMAGE, LIKE_COUNT, CAT_OWNER, USER_OWNER, UPLOAD_DATE, IS_APPROVED, COMMENT_COUNT from POST where CAT_OWNER = :catOwner and (IS_APPROVED = TRUE or :withUnapproved) and (UPLOAD_DATE, ID) < (:time, :id) order by UPLOAD_DATE desc, ID desc limit :limit")
+    List<PostSummary> findSummariesByCatOwnerBefore(@Param("catOwner") Long catOwner, @Param("withUnapproved") boolean withUnapproved, @Param("time") OffsetDateTime time, @Param("id") long id, @Param("limit") int limit);
+
+    @Query("select ID, IMAGE, LIKE_COUNT, CAT_OWNER, USER_OWNER, UPLOAD_DATE, IS_APPROVED, COMMENT_COUNT from POST where USER_OWNER = :userOwner and (IS_APPROVED = TRUE or :withUnapproved) and (UPLOAD_DATE, ID) < (:time, :id) order by UPLOAD_DATE desc, ID desc limit :limit")
+    List<PostSummary> findSummariesByUserOwnerBefore(@Param("userOwner") String userOwner, @Param("withUnapproved") boolean withUnapproved, @Param("time") OffsetDateTime time, @Param("id") long id, @Param("limit") int limit);
     boolean existsById(Long id);
+
+    //approved posts for everyone, unapproved ones only for their owner and admins. Unauthenticated users pass a null username
+    @Query("select * from POST where ID = :id and (IS_APPROVED = TRUE or USER_OWNER = :username or :admin)")
+    Optional<Post> findVisibleById(@Param("id") Long id, @Param("username") String username, @Param("admin") boolean admin);
     boolean existsByIdAndUserOwner(Long id, String userOwner);
 
     boolean existsByCatOwnerAndUserOwner(Long catOwner, String userOwner);
 
+    //what the deletes below are about to remove, for the Timeline
+    @Query("select ID from POST where USER_OWNER = :userOwner")
+    List<Long> findIdsByUserOwner(@Param("userOwner") String userOwner);
+
+    @Query("select ID from POST where CAT_OWNER = :catOwner")
+    List<Long> findIdsByCatOwner(@Param("catOwner") Long catOwner);
+
     @Modifying
     @Query("delete from POST where USER_OWNER = :userOwner")
     Long deleteAllByUserOwner(@Param("userOwner")String userOwner);
@@ -35,4 +72,46 @@ public interface PostRepository extends CrudRepository<Post, Long>, PagingAndSor
 
     boolean existsByUserOwner(String requestedId);
 
+    //single column updates, so a like doesn't rewrite the whole row
+    @Modifying
+    @Query("update POST set LIKE_COUNT = LIKE_COUNT + :delta where ID = :id and LIKE_COUNT + :delta >= 0")
+    boolean addToLikeCount(@Param("id") Long id, @Param("delta") long delta);
+
+    @Modifying
+    @Query("update POST set COMMENT_COUNT = COMMENT_COUNT + :delta where ID = :id and COMMENT_COUNT + :delta >= 0")
+    boolean addToCommentCount(@Param("id") Long id, @Param("delta") long delta);
+
+    //a cat's or a user's posts lose all their comments at once
+    @Modifying
+    @Query("update POST set COMMENT_COUNT = 0 where CAT_OWNER = :catOwner")
+    int clearCommentCountsByCatOwner(@Param("catOwner") Long catOwner);
+
+    @Modifying
+    @Query("update POST set COMMENT_COUNT = 0 where USER_OWNER = :userOwner")
+    int clearCommentCountsByUserOwner(@Param("userOwner") String userOwner);
+
+    @Modifying
+    @Query("update POST set \"DESC\" = :desc where ID = :id and USER_OWNER = :userOwner")
+    boolean updateDesc(@Param("id") Long id, @Param("userOwner") String userOwner, @Param("desc") String desc);
+
+    @Modifying
+    //false if it already was, so only real approvals reach the Timeline
+    @Query("update POST set IS_APPROVED = :isApproved where ID = :id and IS_APPROVED is distinct from :isApproved")
+    boolean updateIsApproved(@Param("id") Long id, @Param("isApproved") boolean isApproved);
+
+    //the moderation queue: posts nobody approved or rejected yet, newest first, with their descriptions, which are what gets moderated
+    @Query("select * from POST where IS_APPROVED is null and (UPLOAD_DATE, ID) < (:time, :id) order by UPLOAD_DATE desc, ID desc limit :limit")
+    List<Post> findPendingBefore(@Param("time") OffsetDateTime time, @Param("id") long id, @Param("limit") int limit);
+
+    //which of these a bulk approval or rejection changes, oldest first. Locked until the transaction ends, so another admin can't change them in between
+    @Query("select ID from POST where ID in (:ids) and IS_APPROVED is distinct from :isApproved order by UPLOAD_DATE, ID for update")
+    List<Long> findIdsToModerate(@Param("ids") Collection<Long> ids, @Param("isApproved") boolean isApproved);
+
+    @Modifying
+    @Query("update POST set IS_APPROVED = :isApproved where ID in (:ids)")
+    int updateIsApprovedIn(@Param("ids") Collection<Long> ids, @Param("isApproved") boolean isApproved);
+
+    @Query("select count(*) from POST where IMAGE = :hash")
+    long countImageReferences(@Param("hash") String hash);
+
 }
@@ -0,0 +1,27 @@
+package com.legoaggelos.catplace.cats.posts;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.legoaggelos.catplace.blobs.ThumbnailPipeline;
+
+import java.sql.Blob;
+import java.time.OffsetDateTime;
+
+/**
+ * What ?view=summary lists need from a {@link Post}: no description, which at up to 4096 characters is most of a row,
+ * and the image only as the stored handle, to link the thumbnail. Selected by its own column list, so DESC is never read.
+ */
+public record PostSummary(Long id,
+                          @JsonIgnore Blob image,
+                          Long likeCount,
+                          Long catOwner,
+                          String userOwner,
+                          OffsetDateTime uploadDate,
+                          Boolean isApproved,
+                          Long commentCount) {
+
+    @JsonProperty("thumbnailUrl")
+    public String thumbnailUrl() {
+        return image == null ? null : "/catposts/" + id + "/image?size=" + ThumbnailPipeline.PREVIEW_SIZE;
+    }
+}
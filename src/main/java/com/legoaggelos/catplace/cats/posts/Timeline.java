@@ -0,0 +1,143 @@
+package com.legoaggelos.catplace.cats.posts;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The ids of the newest approved posts, newest first, which is all /feed reads. Posts are pushed here when they get approved,
+ * so building the feed never searches POST. Only the newest {@code catplace.timeline.size} are kept, in memory and in the
+ * TIMELINE table, which is where a restarted application picks them up from. A database without a timeline yet gets one
+ * from the approved posts already in it.
+ * The lock is a {@link ReentrantLock} rather than {@code synchronized} because it is held across the TIMELINE writes,
+ * and a virtual thread blocked on JDBC inside a monitor would pin its carrier thread.
+ */
+@Component
+public class Timeline {
+    private final JdbcClient jdbcClient;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private ArrayDeque<Long> newestFirst; //null until the first use loads it
+
+    public Timeline(JdbcClient jdbcClient, @Value("${catplace.timeline.size:500}") int capacity) {
+        this.jdbcClient = jdbcClient;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Puts a freshly approved post at the top. A post that was already in the timeline moves up.
+     */
+    public void add(long postId) {
+        addAll(List.of(postId));
+    }
+
+    /**
+     * Puts freshly approved posts at the top, the last one highest, with one insert however many there are.
+     */
+    public void addAll(List<Long> postIds) {
+        if (postIds.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            addAllLocked(postIds);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void addAllLocked(List<Long> postIds) {
+        load();
+        //approvals are rare next to reads, so the table is written while holding the lock and stays in the same order.
+        //It is written first, so a statement that fails leaves the deque as it was
+        jdbcClient.sql("delete from TIMELINE where POST_ID in (:postIds)")
+                .param("postIds", postIds)
+                .update();
+        //a VALUES row per id keeps their order in SEQ
+        jdbcClient.sql("insert into TIMELINE(POST_ID) values " + String.join(", ", Collections.nCopies(postIds.size(), "(?)")))
+                .params(postIds)
+                .update();
+        //by rank, not by SEQ - capacity: removed posts and moved up ones leave gaps in SEQ
+        jdbcClient.sql("delete from TIMELINE where SEQ < (select min(SEQ) from (select SEQ from TIMELINE order by SEQ desc limit :capacity) newest)")
+                .param("capacity", capacity)
+                .update();
+        newestFirst.removeAll(new HashSet<>(postIds));
+        for (Long postId : postIds) {
+            newestFirst.addFirst(postId);
+        }
+        while (newestFirst.size() > capacity) {
+            newestFirst.removeLast();
+        }
+    }
+
+    /**
+     * For unapproved and deleted posts. Deleting a post already deletes its TIMELINE row.
+     */
+    public void remove(long postId) {
+        removeAll(List.of(postId));
+    }
+
+    public void removeAll(Collection<Long> postIds) {
+        if (postIds.isEmpty()) {
+            return;
+        }
+        lock.lock();
+        try {
+            load();
+            jdbcClient.sql("delete from TIMELINE where POST_ID in (:postIds)")
+                    .param("postIds", postIds)
+                    .update();
+            newestFirst.removeAll(new HashSet<>(postIds));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public List<Long> newest(long offset, int count) {
+        lock.lock();
+        try {
+            load();
+            List<Long> page = new ArrayList<>(count);
+            Iterator<Long> ids = newestFirst.iterator();
+            for (long skipped = 0; skipped < offset && ids.hasNext(); skipped++) {
+                ids.next();
+            }
+            while (page.size() < count && ids.hasNext()) {
+                page.add(ids.next());
+            }
+            return page;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void load() {
+        if (newestFirst != null) {
+            return;
+        }
+        List<Long> stored = jdbcClient.sql("select POST_ID from TIMELINE order by SEQ desc limit :capacity")
+                .param("capacity", capacity)
+                .query(Long.class)
+                .list();
+        if (stored.isEmpty()) {
+            //cold start, once per database. Oldest first, so the newest gets the highest SEQ
+            jdbcClient.sql("insert into TIMELINE(POST_ID) select ID from (select ID, UPLOAD_DATE from POST where IS_APPROVED = TRUE order by UPLOAD_DATE desc, ID desc limit :capacity) order by UPLOAD_DATE, ID")
+                    .param("capacity", capacity)
+                    .update();
+            stored = jdbcClient.sql("select POST_ID from TIMELINE order by SEQ desc")
+                    .query(Long.class)
+                    .list();
+        }
+        newestFirst = new ArrayDeque<>(capacity + 1);
+        newestFirst.addAll(stored);
+    }
+}
@@ -12,5 +12,9 @@ public record Comment(@Id Long id,
                       String postUserPoster/*the one who posted the post the comment belongs in*/,
                       Long postCatPoster/*the cat who posted the post the comment belongs in*/,
                       OffsetDateTime postTime,
-                      Long replyingTo) {
+                      Long replyingTo,
+                      Long replyCount/*direct replies only, kept by CommentCounts*/) {
+    public Comment(Long id, String content, Long likeCount, Long postId, String poster, String postUserPoster, Long postCatPoster, OffsetDateTime postTime, Long replyingTo) {
+        this(id, content, likeCount, postId, poster, postUserPoster, postCatPoster, postTime, replyingTo, 0L);
+    }
 }
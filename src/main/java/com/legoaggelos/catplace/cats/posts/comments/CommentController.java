@@ -1,10 +1,13 @@
 package com.legoaggelos.catplace.cats.posts.comments;
 
+import com.legoaggelos.catplace.cats.posts.Cursor;
+import com.legoaggelos.catplace.likehandling.LikeCounters;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.domain.Sort;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
@@ -13,6 +16,8 @@ import org.springframework.web.util.UriComponentsBuilder;
 import java.net.URI;
 import java.time.Instant;
 import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 
@@ -21,11 +26,27 @@ import static com.legoaggelos.catplace.security.util.AdminCertifier.isAdmin;
 @RestController
 @RequestMapping("/comments")
 public class CommentController {
+    private static final int MAX_DEPTH = 50; //also where a reply loop in the data would stop
     @Autowired
     CommentRepository repository;
+    private final LikeCounters likeCounters;
+    private final ReplyDeletion replyDeletion;
+    private final CommentCounts commentCounts;
 
-    public CommentController(CommentRepository repository) {
+    public CommentController(CommentRepository repository, LikeCounters likeCounters, ReplyDeletion replyDeletion, CommentCounts commentCounts) {
         this.repository = repository;
+        this.likeCounters = likeCounters;
+        this.replyDeletion = replyDeletion;
+        this.commentCounts = commentCounts;
+    }
+
+    //likes that LikeCounters hasn't written yet
+    private Comment withPendingLikes(Comment comment) {
+        long pending = likeCounters.pendingCommentLikes(comment.id());
+        if (pending == 0) {
+            return comment;
+        }
+        return new Comment(comment.id(), comment.content(), Math.max(0, comment.likeCount() + pending), comment.postId(), comment.poster(), comment.postUserPoster(), comment.postCatPoster(), comment.postTime(), comment.replyingTo(), comment.replyCount());
     }
 
     @GetMapping("/getFromPostCatPoster/{requestedId}")
@@ -33,7 +54,7 @@ public class CommentController {
         if (!isAdmin(authentication)) {
             return ResponseEntity.notFound().build();
         }
-        Page<Comment> page = repository.findByPostCatPoster(requestedId,
+        Slice<Comment> page = repository.findByPostCatPoster(requestedId,
                 PageRequest.of(
                         pageable.getPageNumber(),
                         pageable.getPageSize(),
@@ -43,7 +64,7 @@ public class CommentController {
         if (page.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(page.getContent());
+        return ResponseEntity.ok(page.map(this::withPendingLikes).getContent());
     }
 
     @GetMapping("/getFromPostUserPoster/{requestedId}")
@@ -51,7 +72,7 @@ public class CommentController {
         if (!isAdmin(authentication)) {
             return ResponseEntity.notFound().build();
         }
-        Page<Comment> page = repository.findByPostUserPoster(requestedId,
+        Slice<Comment> page = repository.findByPostUserPoster(requestedId,
                 PageRequest.of(
                         pageable.getPageNumber(),
                         pageable.getPageSize(),
@@ -61,12 +82,12 @@ public class CommentController {
         if (page.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(page.getContent());
+        return ResponseEntity.ok(page.map(this::withPendingLikes).getContent());
     }
 
     @GetMapping("/getFromReplyingTo/{requestedId}")
     private ResponseEntity<List<Comment>> getCommentsFromReplyingTo(@PathVariable Long requestedId, Pageable pageable, Authentication authentication) {
-        Page<Comment> page = repository.findByReplyingTo(requestedId,
+        Slice<Comment> page = repository.findByReplyingTo(requestedId,
                 PageRequest.of(
                         pageable.getPageNumber(),
                         pageable.getPageSize(),
@@ -76,14 +97,14 @@ public class CommentController {
         if (page.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(page.getContent());
+        return ResponseEntity.ok(page.map(this::withPendingLikes).getContent());
     }
 
     @GetMapping("/{requestedId}")
     private ResponseEntity<Comment> getComment(@PathVariable Long requestedId) {
         Optional<Comment> comment = repository.findById(requestedId);
         if (comment.isPresent()) {
-            return ResponseEntity.ok(comment.get());
+            return ResponseEntity.ok(withPendingLikes(comment.get()));
         }
         return ResponseEntity.notFound().build();
     }
@@ -91,7 +112,7 @@ public class CommentController {
 
     @GetMapping("/fromPostId/{requestedPostId}")
     private ResponseEntity<List<Comment>> getCommentsFromPostId(@PathVariable Long requestedPostId, Pageable pageable) {
-        Page<Comment> page = repository.findByPostId(requestedPostId,
+        Slice<Comment> page = repository.findByPostId(requestedPostId,
                 PageRequest.of(
                         pageable.getPageNumber(),
                         pageable.getPageSize(),
@@ -100,12 +121,12 @@ public class CommentController {
         if (page.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(page.getContent());
+        return ResponseEntity.ok(page.map(this::withPendingLikes).getContent());
     }
 
     @GetMapping("/fromPoster/{poster}")
     private ResponseEntity<List<Comment>> getCommentsFromPoster(@PathVariable String poster, Pageable pageable) {
-        Page<Comment> page = repository.findByPoster(poster,
+        Slice<Comment> page = repository.findByPoster(poster,
                 PageRequest.of(
                         pageable.getPageNumber(),
                         pageable.getPageSize(),
@@ -114,7 +135,66 @@ public class CommentController {
         if (page.isEmpty()) {
             return ResponseEntity.notFound().build();
         }
-        return ResponseEntity.ok(page.getContent());
+        return ResponseEntity.ok(page.map(this::withPendingLikes).getContent());
+    }
+
+    //?cursor=, the same comments as the three above, but seeking past the last one the client got instead of counting an offset. Always newest first
+    @GetMapping(value = "/getFromReplyingTo/{requestedId}", params = "cursor")
+    private ResponseEntity<List<Comment>> getCommentsFromReplyingToAfter(@PathVariable Long requestedId, @RequestParam(defaultValue = "") String cursor, Pageable pageable) {
+        Optional<Cursor> after = Cursor.parse(cursor);
+        if (after.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        return keysetPage(repository.findByReplyingToBefore(requestedId, after.get().time(), after.get().id(), pageable.getPageSize() + 1), pageable);
+    }
+
+    @GetMapping(value = "/fromPostId/{requestedPostId}", params = "cursor")
+    private ResponseEntity<List<Comment>> getCommentsFromPostIdAfter(@PathVariable Long requestedPostId, @RequestParam(defaultValue = "") String cursor, Pageable pageable) {
+        Optional<Cursor> after = Cursor.parse(cursor);
+        if (after.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        return keysetPage(repository.findByPostIdBefore(requestedPostId, after.get().time(), after.get().id(), pageable.getPageSize() + 1), pageable);
+    }
+
+    @GetMapping(value = "/fromPoster/{poster}", params = "cursor")
+    private ResponseEntity<List<Comment>> getCommentsFromPosterAfter(@PathVariable String poster, @RequestParam(defaultValue = "") String cursor, Pageable pageable) {
+        Optional<Cursor> after = Cursor.parse(cursor);
+        if (after.isEmpty()) {
+            return ResponseEntity.badRequest().build();
+        }
+        return keysetPage(repository.findByPosterBefore(poster, after.get().time(), after.get().id(), pageable.getPageSize() + 1), pageable);
+    }
+
+    private ResponseEntity<List<Comment>> keysetPage(List<Comment> comments, Pageable pageable) {
+        return Cursor.respond(comments.stream().map(this::withPendingLikes).toList(), pageable.getPageSize(), comment -> new Cursor(comment.postTime(), comment.id()));
+    }
+
+    //a page of a post's top level comments, newest first, each with all of its replies under it, oldest first. ?cursor= pages by top level comment
+    @GetMapping("/thread/{postId}")
+    private ResponseEntity<List<CommentNode>> getThread(@PathVariable Long postId, @RequestParam(defaultValue = "") String cursor,
+                                                        @RequestParam(defaultValue = "" + MAX_DEPTH) int depth, Pageable pageable) {
+        Optional<Cursor> after = Cursor.parse(cursor);
+        if (after.isEmpty() || depth < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<Comment> comments = repository.findThreadBefore(postId, after.get().time(), after.get().id(), pageable.getPageSize() + 1, Math.min(depth, MAX_DEPTH));
+        List<CommentNode> topLevel = new ArrayList<>(CommentNode.assemble(comments.stream().map(this::withPendingLikes).toList()));
+        Collections.reverse(topLevel); //assembled oldest first
+        return Cursor.respond(topLevel, pageable.getPageSize(), node -> new Cursor(node.comment().postTime(), node.comment().id()));
+    }
+
+    //a comment with its replies, and theirs, down to depth levels below it
+    @GetMapping("/{requestedId}/subtree")
+    private ResponseEntity<CommentNode> getSubtree(@PathVariable Long requestedId, @RequestParam(defaultValue = "" + MAX_DEPTH) int depth) {
+        if (depth < 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        List<Comment> comments = repository.findSubtree(requestedId, Math.min(depth, MAX_DEPTH));
+        if (comments.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(CommentNode.assemble(comments.stream().map(this::withPendingLikes).toList()).get(0));
     }
 
     @PostMapping
@@ -122,6 +202,7 @@ public class CommentController {
         String username = authentication.getName();
         Comment request = new Comment(null, newCommentRequest.content(), 0L, newCommentRequest.postId(), username, newCommentRequest.postUserPoster(), newCommentRequest.postCatPoster(), Instant.now().atOffset(ZoneOffset.UTC), newCommentRequest.replyingTo());
         Comment savedComment = repository.save(request);
+        commentCounts.added(savedComment);
         URI locationOfNewComment = ucb
                 .path("/comments/{id}")
                 .buildAndExpand(savedComment.id())
@@ -137,29 +218,52 @@ public class CommentController {
         }
         boolean admin = isAdmin(authentication);
         boolean owns = repository.existsByIdAndPoster(requestedId, authentication.getName());
+        if (!admin) {
+            if (owns) {
+                repository.updateContent(requestedId, authentication.getName(), commentUpdate.content()); //doesn't touch LIKE_COUNT, which LikeCounters may be writing
+            }
+            return ResponseEntity.noContent().build(); //everyone else's likes go through /likedComment
+        }
         Comment comment = commentOptional.get();
         Comment update = new Comment(requestedId,
                 (owns ? commentUpdate.content() : comment.content()),
-                (admin || (!owns && Math.abs(commentUpdate.likeCount() - comment.likeCount()) <= 1 && commentUpdate.likeCount() >= 0)) ? commentUpdate.likeCount() : comment.likeCount(), //only admin and not-owner can update like count)
+                commentUpdate.likeCount(), //only admin can correct the like count
                 comment.postId(),
                 comment.poster(),
                 comment.postUserPoster(),
                 comment.postCatPoster(),
                 comment.postTime(),
-                comment.replyingTo()
+                comment.replyingTo(),
+                comment.replyCount() //CommentCounts' to keep
         );
         repository.save(update);
         return ResponseEntity.noContent().build();
     }
 
+    //admin corrections only, the count can't go below 0. Likes themselves go through /likedComment and are counted by LikeCounters
+    @PatchMapping("/{requestedId}/likeCount")
+    private ResponseEntity<Void> addToLikeCount(@PathVariable Long requestedId, @RequestParam long delta, Authentication authentication) {
+        if (!isAdmin(authentication)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        return repository.addToLikeCount(requestedId, delta) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
+    //only the content changes, and only for the poster
+    @PatchMapping("/{requestedId}")
+    private ResponseEntity<Void> patchComment(@PathVariable Long requestedId, @RequestBody Comment commentPatch, Authentication authentication) {
+        if (commentPatch.content() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        return repository.updateContent(requestedId, authentication.getName(), commentPatch.content()) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+
     @DeleteMapping("/{requestedId}")
     private ResponseEntity<Void> deleteComment(@PathVariable Long requestedId, Authentication authentication) {
-        if (isAdmin(authentication) && repository.existsById(requestedId)) {
-            repository.deleteById(requestedId);
-            return ResponseEntity.noContent().build();
-        }
-        if (repository.existsByIdAndPoster(requestedId, authentication.getName())) {
+        Optional<Comment> comment = repository.findById(requestedId);
+        if (comment.isPresent() && (isAdmin(authentication) || comment.get().poster().equals(authentication.getName()))) {
             repository.deleteById(requestedId);
+            commentCounts.deleted(comment.get());
             return ResponseEntity.noContent().build();
         }
         return ResponseEntity.notFound().build();
@@ -169,6 +273,7 @@ public class CommentController {
     private ResponseEntity<Void> deleteCommentsByPostUserPoster(@PathVariable String requestedId, Authentication authentication) {
         if (authentication.getName().equals(requestedId) /*when users delete their account, they delete all comments in posts they posted.*/ || isAdmin(authentication)) {
             repository.deleteAllByPostUserPoster(requestedId);
+            commentCounts.clearedUserPosts(requestedId);
             return ResponseEntity.noContent().build();
         }
         return ResponseEntity.notFound().build();
@@ -178,6 +283,7 @@ public class CommentController {
     private ResponseEntity<Void> deleteCommentsByPostCatPoster(@PathVariable Long requestedId, Authentication authentication) {
         if (repository.existsByPostUserPosterAndPostCatPoster(authentication.getName(), requestedId)/*if a comment exists, and the post poster and cat poster match the requested cat and user, that means the cat belongs to the user, so they can delete all comments in the post*/ || isAdmin(authentication)) { //when users delete a c, they delete all comments in posts the cat posted.
             repository.deleteAllByPostCatPoster(requestedId);
+            commentCounts.clearedCatPosts(requestedId);
             return ResponseEntity.noContent().build();
         }
         return ResponseEntity.notFound().build();
@@ -186,7 +292,10 @@ public class CommentController {
     @DeleteMapping("/deleteByPoster/{requestedId}")
     private ResponseEntity<Void> deleteCommentsByPoster(@PathVariable String requestedId, Authentication authentication) {
         if (authentication.getName().equals(requestedId) || isAdmin(authentication)) {
+            List<Long> postIds = repository.findPostIdsByPoster(requestedId);
+            List<Long> parentIds = repository.findReplyingToByPoster(requestedId);
             repository.deleteAllByPoster(requestedId);
+            commentCounts.recount(postIds, parentIds);
             return ResponseEntity.noContent().build();
         }
         return ResponseEntity.notFound().build();
@@ -195,9 +304,18 @@ public class CommentController {
     @DeleteMapping("/deleteByReplyingTo/{requestedId}")
     private ResponseEntity<Void> deleteCommentsByParentComment(@PathVariable Long requestedId, Authentication authentication) {
         if (repository.existsByIdAndPoster(requestedId/*parent comment*/, authentication.getName())/*if the comment with the requested id is owned by the user, they can delete all replies*/ || isAdmin(authentication)) {
-            repository.deleteAllByReplyingTo(requestedId);
+            replyDeletion.deleteReplies(requestedId); //replies to the replies too, nothing is left without its parent
             return ResponseEntity.noContent().build();
         }
         return ResponseEntity.notFound().build();
     }
+
+    //the comment and every reply under it, at any depth. Answers how many comments were deleted
+    @DeleteMapping("/{requestedId}/subtree")
+    private ResponseEntity<Integer> deleteSubtree(@PathVariable Long requestedId, Authentication authentication) {
+        if (isAdmin(authentication) && repository.existsById(requestedId) || repository.existsByIdAndPoster(requestedId, authentication.getName())) {
+            return ResponseEntity.ok(replyDeletion.deleteWithReplies(requestedId));
+        }
+        return ResponseEntity.notFound().build();
+    }
 }
@@ -0,0 +1,95 @@
+package com.legoaggelos.catplace.cats.posts.comments;
+
+import com.legoaggelos.catplace.cats.posts.PostRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+
+/**
+ * Keeps POST.COMMENT_COUNT and COMMENT.REPLY_COUNT, so a list of posts or comments shows how many comments and replies they have
+ * without counting them. A new or deleted comment moves its post's and its parent's count by one, with the same kind of single column
+ * update as the like counts, and the bulk deletes recount only what they touched.
+ * What can still drift, a comment written without its count because of a crash, comments deleted straight from the database,
+ * is fixed by {@link #repair()}, at startup and every {@code catplace.comments.repair-interval}.
+ */
+@Component
+public class CommentCounts {
+    private static final Logger log = LoggerFactory.getLogger(CommentCounts.class);
+
+    private final PostRepository postRepository;
+    private final CommentRepository commentRepository;
+    private final JdbcClient jdbcClient;
+
+    public CommentCounts(PostRepository postRepository, CommentRepository commentRepository, JdbcClient jdbcClient) {
+        this.postRepository = postRepository;
+        this.commentRepository = commentRepository;
+        this.jdbcClient = jdbcClient;
+    }
+
+    public void added(Comment comment) {
+        move(comment, 1);
+    }
+
+    public void deleted(Comment comment) {
+        move(comment, -1);
+    }
+
+    private void move(Comment comment, long delta) {
+        postRepository.addToCommentCount(comment.postId(), delta);
+        if (comment.replyingTo() != null) {
+            commentRepository.addToReplyCount(comment.replyingTo(), delta);
+        }
+    }
+
+    //deleteAllByPostUserPoster and deleteAllByPostCatPoster leave every post of the user or the cat without comments
+    public void clearedUserPosts(String userOwner) {
+        postRepository.clearCommentCountsByUserOwner(userOwner);
+    }
+
+    public void clearedCatPosts(Long catOwner) {
+        postRepository.clearCommentCountsByCatOwner(catOwner);
+    }
+
+    /**
+     * Counts again the comments of these posts and the replies to these comments, for deletes that don't know how many they removed from each.
+     */
+    public void recount(Collection<Long> postIds, Collection<Long> commentIds) {
+        if (!postIds.isEmpty()) {
+            jdbcClient.sql("update POST P set COMMENT_COUNT = (select count(*) from COMMENT C where C.POST_ID = P.ID) where P.ID in (:ids)")
+                    .param("ids", postIds)
+                    .update();
+        }
+        if (!commentIds.isEmpty()) {
+            jdbcClient.sql("update COMMENT P set REPLY_COUNT = (select count(*) from COMMENT C where C.REPLYING_TO = P.ID) where P.ID in (:ids)")
+                    .param("ids", commentIds)
+                    .update();
+        }
+    }
+
+    /**
+     * Counts everything again and fixes the counts that are off. Returns how many were.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${catplace.comments.repair-interval:PT1H}", initialDelayString = "${catplace.comments.repair-interval:PT1H}")
+    public int repair() {
+        //only rows whose count is off are written, so a repair that finds nothing doesn't lock anything
+        int repaired = jdbcClient.sql("""
+                        update POST P set COMMENT_COUNT = (select count(*) from COMMENT C where C.POST_ID = P.ID)
+                        where COMMENT_COUNT <> (select count(*) from COMMENT C where C.POST_ID = P.ID)""")
+                .update();
+        repaired += jdbcClient.sql("""
+                        update COMMENT P set REPLY_COUNT = (select count(*) from COMMENT C where C.REPLYING_TO = P.ID)
+                        where REPLY_COUNT <> (select count(*) from COMMENT C where C.REPLYING_TO = P.ID)""")
+                .update();
+        if (repaired > 0) {
+            log.info("Repaired {} comment and reply counts", repaired);
+        }
+        return repaired;
+    }
+}
@@ -0,0 +1,35 @@
+package com.legoaggelos.catplace.cats.posts.comments;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A comment with its replies under it, as /comments/thread and /comments/{id}/subtree return them.
+ * The comment's own fields stay at the top level of the json, next to "replies".
+ */
+public record CommentNode(@JsonUnwrapped Comment comment, List<CommentNode> replies) {
+
+    /**
+     * Builds the trees in one pass over {@code comments}, which have to come with every parent before its replies.
+     * Comments whose parent isn't in the list are roots. Roots and replies keep the order of the list.
+     */
+    public static List<CommentNode> assemble(List<Comment> comments) {
+        Map<Long, CommentNode> nodes = new HashMap<>(comments.size() * 2);
+        List<CommentNode> roots = new ArrayList<>();
+        for (Comment comment : comments) {
+            CommentNode node = new CommentNode(comment, new ArrayList<>());
+            nodes.put(comment.id(), node);
+            CommentNode parent = comment.replyingTo() == null ? null : nodes.get(comment.replyingTo());
+            if (parent == null) {
+                roots.add(node);
+            } else {
+                parent.replies().add(node);
+            }
+        }
+        return roots;
+    }
+}
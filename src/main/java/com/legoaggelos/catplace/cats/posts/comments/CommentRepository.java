@@ -1,7 +1,7 @@
 package com.legoaggelos.catplace.cats.posts.comments;
 
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
 import org.springframework.data.jdbc.repository.query.Modifying;
 import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
@@ -9,12 +9,25 @@ import org.springframework.data.repository.PagingAndSortingRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.OffsetDateTime;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface CommentRepository extends CrudRepository<Comment, Long>, PagingAndSortingRepository<Comment, Long> {
-    Page<Comment> findByPostId(Long postId, Pageable pageable);
-    Page<Comment> findByPoster(String poster, Pageable pageable);
+    //Slice, not Page: nobody reads the total, so there is no count query
+    Slice<Comment> findByPostId(Long postId, Pageable pageable);
+    Slice<Comment> findByPoster(String poster, Pageable pageable);
+
+    //?cursor= pages, newest first, starting after the Cursor
+    @Query("select * from COMMENT where POST_ID = :postId and (POST_TIME, ID) < (:time, :id) order by POST_TIME desc, ID desc limit :limit")
+    List<Comment> findByPostIdBefore(@Param("postId") Long postId, @Param("time") OffsetDateTime time, @Param("id") long id, @Param("limit") int limit);
+
+    @Query("select * from COMMENT where POSTER = :poster and (POST_TIME, ID) < (:time, :id) order by POST_TIME desc, ID desc limit :limit")
+    List<Comment> findByPosterBefore(@Param("poster") String poster, @Param("time") OffsetDateTime time, @Param("id") long id, @Param("limit") int limit);
+
+    @Query("select * from COMMENT where REPLYING_TO = :replyingTo and (POST_TIME, ID) < (:time, :id) order by POST_TIME desc, ID desc limit :limit")
+    List<Comment> findByReplyingToBefore(@Param("replyingTo") Long replyingTo, @Param("time") OffsetDateTime time, @Param("id") long id, @Param("limit") int limit);
     Optional<Comment> findById(Long commentId);
 
     boolean existsByIdAndPoster(Long requestedId, String name);
@@ -37,11 +50,71 @@ public interface CommentRepository extends CrudRepository<Comment, Long>, Paging
 
     boolean existsByPostUserPosterAndPostCatPoster(String poster, Long postCatPoster);
 
-    Page<Comment> findByPostCatPoster(Long postCatPoster, Pageable pageable);
+    //a page of a post's top level comments, newest first after the Cursor, and every reply under them down to maxDepth, in one query.
+    //Parents come before their replies, which is what CommentNode.assemble needs
+    @Query("""
+            with recursive THREAD(ID, DEPTH) as (
+                select ID, 0 from (
+                    select ID from COMMENT where POST_ID = :postId and REPLYING_TO is null and (POST_TIME, ID) < (:time, :id) order by POST_TIME desc, ID desc limit :limit
+                ) TOP_LEVEL
+                union all
+                select C.ID, T.DEPTH + 1 from COMMENT C join THREAD T on C.REPLYING_TO = T.ID where T.DEPTH < :maxDepth
+            )
+            select C.* from THREAD T join COMMENT C on C.ID = T.ID order by T.DEPTH, C.POST_TIME, C.ID""")
+    List<Comment> findThreadBefore(@Param("postId") Long postId, @Param("time") OffsetDateTime time, @Param("id") long id, @Param("limit") int limit, @Param("maxDepth") int maxDepth);
+
+    //a comment and its replies down to maxDepth, in the same order as findThreadBefore
+    @Query("""
+            with recursive THREAD(ID, DEPTH) as (
+                select ID, 0 from COMMENT where ID = :id
+                union all
+                select C.ID, T.DEPTH + 1 from COMMENT C join THREAD T on C.REPLYING_TO = T.ID where T.DEPTH < :maxDepth
+            )
+            select C.* from THREAD T join COMMENT C on C.ID = T.ID order by T.DEPTH, C.POST_TIME, C.ID""")
+    List<Comment> findSubtree(@Param("id") Long id, @Param("maxDepth") int maxDepth);
+
+    //every reply under a comment, at any depth. UNION rather than UNION ALL, so a reply loop in the data ends too
+    @Query("""
+            with recursive REPLIES(ID) as (
+                select ID from COMMENT where REPLYING_TO = :id
+                union
+                select C.ID from COMMENT C join REPLIES R on C.REPLYING_TO = R.ID
+            )
+            select ID from REPLIES""")
+    List<Long> findReplyIds(@Param("id") Long id);
+
+    //the posts those replies are on, nothing makes them the post of the comment they reply to
+    @Query("""
+            with recursive REPLIES(ID) as (
+                select ID from COMMENT where REPLYING_TO = :id
+                union
+                select C.ID from COMMENT C join REPLIES R on C.REPLYING_TO = R.ID
+            )
+            select distinct C.POST_ID from REPLIES R join COMMENT C on C.ID = R.ID""")
+    List<Long> findReplyPostIds(@Param("id") Long id);
+
+    Slice<Comment> findByPostCatPoster(Long postCatPoster, Pageable pageable);
 
-    Page<Comment> findByReplyingTo(Long replyingTo, Pageable pageable);
+    Slice<Comment> findByReplyingTo(Long replyingTo, Pageable pageable);
 
-    Page<Comment> findByPostUserPoster(String postPoster, Pageable pageable);
+    Slice<Comment> findByPostUserPoster(String postPoster, Pageable pageable);
 
-    ;
+    @Modifying
+    @Query("update COMMENT set LIKE_COUNT = LIKE_COUNT + :delta where ID = :id and LIKE_COUNT + :delta >= 0")
+    boolean addToLikeCount(@Param("id") Long id, @Param("delta") long delta);
+
+    @Modifying
+    @Query("update COMMENT set REPLY_COUNT = REPLY_COUNT + :delta where ID = :id and REPLY_COUNT + :delta >= 0")
+    boolean addToReplyCount(@Param("id") Long id, @Param("delta") long delta);
+
+    //the posts and the comments whose counts deleteAllByPoster changes
+    @Query("select distinct POST_ID from COMMENT where POSTER = :poster")
+    List<Long> findPostIdsByPoster(@Param("poster") String poster);
+
+    @Query("select distinct REPLYING_TO from COMMENT where POSTER = :poster and REPLYING_TO is not null")
+    List<Long> findReplyingToByPoster(@Param("poster") String poster);
+
+    @Modifying
+    @Query("update COMMENT set CONTENT = :content where ID = :id and POSTER = :poster")
+    boolean updateContent(@Param("id") Long id, @Param("poster") String poster, @Param("content") String content);
 }
@@ -0,0 +1,66 @@
+package com.legoaggelos.catplace.cats.posts.comments;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Deletes whole reply trees. The ids under a comment are found with one recursive query, then the comments and their likes
+ * are deleted in JDBC batches of {@value #BATCH_SIZE}, all in one transaction, so a thread is either gone or untouched.
+ * The comment and reply counts of what is left are recounted in the same transaction.
+ */
+@Component
+public class ReplyDeletion {
+    private static final int BATCH_SIZE = 500;
+
+    private final CommentRepository repository;
+    private final JdbcTemplate jdbcTemplate;
+    private final CommentCounts commentCounts;
+
+    public ReplyDeletion(CommentRepository repository, JdbcTemplate jdbcTemplate, CommentCounts commentCounts) {
+        this.repository = repository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.commentCounts = commentCounts;
+    }
+
+    /**
+     * Deletes every reply under the comment, replies to replies included, and returns how many that was.
+     */
+    @Transactional
+    public int deleteReplies(long commentId) {
+        List<Long> postIds = repository.findReplyPostIds(commentId);
+        int deleted = delete(repository.findReplyIds(commentId));
+        commentCounts.recount(postIds, List.of(commentId));
+        return deleted;
+    }
+
+    /**
+     * Same as {@link #deleteReplies(long)}, but the comment itself goes too. Counted as well, if it existed.
+     */
+    @Transactional
+    public int deleteWithReplies(long commentId) {
+        List<Long> ids = new ArrayList<>(repository.findReplyIds(commentId));
+        Set<Long> postIds = new HashSet<>(repository.findReplyPostIds(commentId));
+        Optional<Comment> comment = repository.findById(commentId);
+        comment.ifPresent(it -> {
+            ids.add(it.id());
+            postIds.add(it.postId());
+        });
+        int deleted = delete(ids);
+        commentCounts.recount(postIds, comment.map(Comment::replyingTo).stream().toList());
+        return deleted;
+    }
+
+    private int delete(List<Long> ids) {
+        //the likes first, LIKED_COMMENT references the comments
+        jdbcTemplate.batchUpdate("delete from LIKED_COMMENT where COMMENT_LIKED_ID = ?", ids, BATCH_SIZE, (ps, id) -> ps.setLong(1, id));
+        jdbcTemplate.batchUpdate("delete from COMMENT where ID = ?", ids, BATCH_SIZE, (ps, id) -> ps.setLong(1, id));
+        return ids.size();
+    }
+}
@@ -0,0 +1,88 @@
+package com.legoaggelos.catplace.likehandling;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.TransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps POST.LIKE_COUNT and COMMENT.LIKE_COUNT in step with the likes themselves, so clients don't have to send counts.
+ * Every like or unlike only adds to a {@link LongAdder} in memory, and {@link #flush()} writes the sums of all of them
+ * in one batch. A viral post costs one row update per flush, not one per like, and likers never wait on its row lock.
+ * Until then the pending likes are only in memory, so whatever returns a like count adds them with {@link #pendingPostLikes(long)}
+ * and {@link #pendingCommentLikes(long)}.
+ */
+@Component
+public class LikeCounters {
+    private static final Logger log = LoggerFactory.getLogger(LikeCounters.class);
+
+    //one adder per post or comment liked since startup. They are never removed, an add racing with the removal could be lost
+    private final ConcurrentHashMap<Long, LongAdder> postLikes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, LongAdder> commentLikes = new ConcurrentHashMap<>();
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+
+    public LikeCounters(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+    }
+
+    public void addPostLikes(long postId, long delta) {
+        postLikes.computeIfAbsent(postId, id -> new LongAdder()).add(delta);
+    }
+
+    public void addCommentLikes(long commentId, long delta) {
+        commentLikes.computeIfAbsent(commentId, id -> new LongAdder()).add(delta);
+    }
+
+    public long pendingPostLikes(long postId) {
+        LongAdder pending = postLikes.get(postId);
+        return pending == null ? 0 : pending.sum();
+    }
+
+    public long pendingCommentLikes(long commentId) {
+        LongAdder pending = commentLikes.get(commentId);
+        return pending == null ? 0 : pending.sum();
+    }
+
+    @Scheduled(fixedDelayString = "${catplace.likes.flush-interval:PT1S}")
+    public void flush() {
+        flush("update POST set LIKE_COUNT = greatest(LIKE_COUNT + ?, 0) where ID = ?", postLikes);
+        flush("update COMMENT set LIKE_COUNT = greatest(LIKE_COUNT + ?, 0) where ID = ?", commentLikes);
+    }
+
+    private void flush(String sql, ConcurrentHashMap<Long, LongAdder> pending) {
+        List<Object[]> batch = new ArrayList<>();
+        pending.forEach((id, adder) -> {
+            long delta = adder.sumThenReset(); //likes added meanwhile either make it into this sum or stay for the next flush
+            if (delta != 0) {
+                batch.add(new Object[]{delta, id});
+            }
+        });
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            //all or nothing, so putting the whole batch back below can't count a row twice
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.batchUpdate(sql, batch));
+        } catch (DataAccessException | TransactionException e) {
+            batch.forEach(row -> pending.get((Long) row[1]).add((Long) row[0])); //put them back for the next flush
+            log.warn("Could not flush {} like counts, will retry", batch.size(), e);
+        }
+    }
+
+    @PreDestroy
+    void flushOnShutdown() {
+        flush();
+    }
+}
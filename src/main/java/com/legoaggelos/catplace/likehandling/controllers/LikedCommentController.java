@@ -1,7 +1,10 @@
 package com.legoaggelos.catplace.likehandling.controllers;
 
+import com.legoaggelos.catplace.likehandling.LikeCounters;
 import com.legoaggelos.catplace.likehandling.LikedComment;
 import com.legoaggelos.catplace.likehandling.repositories.LikedCommentRepository;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -9,17 +12,23 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static com.legoaggelos.catplace.security.util.AdminCertifier.isAdmin;
 
 @RestController
 @RequestMapping("/likedComment")
 public class LikedCommentController {
+    private static final int MAX_BATCH_SIZE = 100;
     private final LikedCommentRepository repository;
+    private final LikeCounters likeCounters;
 
-    public LikedCommentController(LikedCommentRepository repository) {
+    public LikedCommentController(LikedCommentRepository repository, LikeCounters likeCounters) {
         this.repository = repository;
+        this.likeCounters = likeCounters;
     }
     @GetMapping("/fromId/{requestedId}")
     private ResponseEntity<LikedComment> getById(@PathVariable Long requestedId, Authentication authentication) {
@@ -48,33 +57,56 @@ public class LikedCommentController {
         }
         return repository.existsByUsernameAndCommentLikedId(authentication.getName(), requestedId) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
     }
+    //a whole feed page in one round trip instead of one GET per comment. The answers are in the order of the ids asked for
+    @PostMapping("/batch")
+    private ResponseEntity<List<Boolean>> existByIds(@RequestBody List<Long> requestedIds, Authentication authentication) {
+        if (authentication == null) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (requestedIds.size() > MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest().header("message", "At most "+MAX_BATCH_SIZE+" comments can be checked at once.").build();
+        }
+        if (requestedIds.isEmpty()) {
+            return ResponseEntity.ok(List.of());
+        }
+        Set<Long> liked = new HashSet<>(repository.findLikedIdsIn(authentication.getName(), requestedIds));
+        return ResponseEntity.ok(requestedIds.stream().map(liked::contains).toList());
+    }
+
     @PostMapping
     private ResponseEntity<Void> likeComment(@RequestBody Long requestedId, UriComponentsBuilder ucb, Authentication authentication) {
         if (authentication == null) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
-        } else if (repository.existsByUsernameAndCommentLikedId(authentication.getName(), requestedId)) {
+        }
+        int inserted;
+        try {
+            inserted = repository.insertIfAbsent(authentication.getName(), requestedId);
+        } catch (DuplicateKeyException e) {
+            inserted = 0; //a concurrent like of the same comment got there first
+        } catch (DataIntegrityViolationException e) {
+            return ResponseEntity.notFound().build(); //no such comment
+        }
+        if (inserted == 0) {
             return ResponseEntity.badRequest().header("message", "Comment "+requestedId+" has already been liked by user "+authentication.getName()+".").build();
         }
-        var liked = new LikedComment(null, authentication.getName(), requestedId);
-        var savedLiked = repository.save(liked);
+        likeCounters.addCommentLikes(requestedId, 1);
         URI locationOfLiked = ucb
                 .path("/likedComment/{id}")
-                .buildAndExpand(savedLiked.id())
+                .buildAndExpand(requestedId) //what GET /likedComment/{id} takes
                 .toUri();
         return ResponseEntity.created(locationOfLiked).build();
     }
+
     @DeleteMapping("/{requestedId}")
     private ResponseEntity<Void> deleteComment(@PathVariable Long requestedId, Authentication authentication) {
         if (authentication == null) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
         }
-        boolean shouldDelete = repository.existsByUsernameAndCommentLikedId(authentication.getName(), requestedId);
-        if (shouldDelete) {
-            repository.deleteByUsernameAndCommentLikedId(authentication.getName(), requestedId);
-            return ResponseEntity.noContent().build();
-        } else {
+        if (repository.deleteByUsernameAndCommentLikedId(authentication.getName(), requestedId) == 0) {
             return ResponseEntity.notFound().build();
         }
+        likeCounters.addCommentLikes(requestedId, -1);
+        return ResponseEntity.noContent().build();
     }
 
     @DeleteMapping("/{requestedId}/user/{username}")
@@ -85,12 +117,10 @@ public class LikedCommentController {
         if (!isAdmin(authentication)) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
         }
-        boolean shouldDelete = repository.existsByUsernameAndCommentLikedId(username, requestedId);
-        if (shouldDelete) {
-            repository.deleteByUsernameAndCommentLikedId(username, requestedId);
-            return ResponseEntity.noContent().build();
-        } else {
+        if (repository.deleteByUsernameAndCommentLikedId(username, requestedId) == 0) {
             return ResponseEntity.notFound().build();
         }
+        likeCounters.addCommentLikes(requestedId, -1);
+        return ResponseEntity.noContent().build();
     }
 }
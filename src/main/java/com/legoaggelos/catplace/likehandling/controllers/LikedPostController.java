@@ -1,8 +1,11 @@
 package com.legoaggelos.catplace.likehandling.controllers;
 
+import com.legoaggelos.catplace.likehandling.LikeCounters;
 import com.legoaggelos.catplace.likehandling.LikedComment;
 import com.legoaggelos.catplace.likehandling.LikedPost;
 import com.legoaggelos.catplace.likehandling.repositories.LikedPostRepository;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
@@ -10,17 +13,23 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import java.net.URI;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 import static com.legoaggelos.catplace.security.util.AdminCertifier.isAdmin;
 
 @RestController
 @RequestMapping("/likedPost")
 public class LikedPostController {
+    private static final int MAX_BATCH_SIZE = 100;
     private final LikedPostRepository repository;
+    private final LikeCounters likeCounters;
 
-    public LikedPostController(LikedPostRepository repository) {
+    public LikedPostController(LikedPostRepository repository, LikeCounters likeCounters) {
         this.repository = repository;
+        this.likeCounters = likeCounters;
     }
     @GetMapping("/fromId/{requestedId}")
     private ResponseEntity<LikedPost> getById(@PathVariable Long requestedId, Authentication authentication) {
@@ -49,18 +58,42 @@ public class LikedPostController {
         return repository.existsByUsernameAndPostLikedId(authentication.getName(), requestedId) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
     }
 
+    //a whole feed page in one round trip instead of one GET per post. The answers are in the order of the ids asked for
+    @PostMapping("/batch")
+    private ResponseEntity<List<Boolean>> existByIds(@RequestBody List<Long> requestedIds, Authentication authentication) {
+        if (authentication == null) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (requestedIds.size() > MAX_BATCH_SIZE) {
+            return ResponseEntity.badRequest().header("message", "At most "+MAX_BATCH_SIZE+" posts can be checked at once.").build();
+        }
+        if (requestedIds.isEmpty()) {
+            return ResponseEntity.ok(List.of());
+        }
+        Set<Long> liked = new HashSet<>(repository.findLikedIdsIn(authentication.getName(), requestedIds));
+        return ResponseEntity.ok(requestedIds.stream().map(liked::contains).toList());
+    }
+
     @PostMapping
     private ResponseEntity<Void> likePost(@RequestBody Long requestedId, UriComponentsBuilder ucb, Authentication authentication) {
         if (authentication == null) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
-        } else if (repository.existsByUsernameAndPostLikedId(authentication.getName(), requestedId)) {
+        }
+        int inserted;
+        try {
+            inserted = repository.insertIfAbsent(authentication.getName(), requestedId);
+        } catch (DuplicateKeyException e) {
+            inserted = 0; //a concurrent like of the same post got there first
+        } catch (DataIntegrityViolationException e) {
+            return ResponseEntity.notFound().build(); //no such post
+        }
+        if (inserted == 0) {
             return ResponseEntity.badRequest().header("message", "Post "+requestedId+" has already been liked by user "+authentication.getName()+".").build();
         }
-        var liked = new LikedPost(null, authentication.getName(), requestedId);
-        var savedLiked = repository.save(liked);
+        likeCounters.addPostLikes(requestedId, 1);
         URI locationOfLiked = ucb
                 .path("/likedPost/{id}")
-                .buildAndExpand(savedLiked.id())
+                .buildAndExpand(requestedId) //what GET /likedPost/{id} takes
                 .toUri();
         return ResponseEntity.created(locationOfLiked).build();
     }
@@ -70,13 +103,11 @@ public class LikedPostController {
         if (authentication == null) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
         }
-        boolean shouldDelete = repository.existsByUsernameAndPostLikedId(authentication.getName(), requestedId);
-        if (shouldDelete) {
-            repository.deleteByUsernameAndPostLikedId(authentication.getName(), requestedId);
-            return ResponseEntity.noContent().build();
-        } else {
+        if (repository.deleteByUsernameAndPostLikedId(authentication.getName(), requestedId) == 0) {
             return ResponseEntity.notFound().build();
         }
+        likeCounters.addPostLikes(requestedId, -1);
+        return ResponseEntity.noContent().build();
     }
 
     @DeleteMapping("/{requestedId}/user/{username}")
@@ -87,12 +118,10 @@ public class LikedPostController {
         if (!isAdmin(authentication)) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
         }
-        boolean shouldDelete = repository.existsByUsernameAndPostLikedId(username, requestedId);
-        if (shouldDelete) {
-            repository.deleteByUsernameAndPostLikedId(username, requestedId);
-            return ResponseEntity.noContent().build();
-        } else {
+        if (repository.deleteByUsernameAndPostLikedId(username, requestedId) == 0) {
             return ResponseEntity.notFound().build();
         }
+        likeCounters.addPostLikes(requestedId, -1);
+        return ResponseEntity.noContent().build();
     }
 }
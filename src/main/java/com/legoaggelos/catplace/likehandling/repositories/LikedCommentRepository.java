@@ -7,10 +7,22 @@ import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface LikedCommentRepository extends CrudRepository<LikedComment, Long> {
     boolean existsByUsernameAndCommentLikedId(String username, Long likedId);
+
+    //which of these the user liked, in one query that uses the unique (username, liked id) index
+    @Query("SELECT COMMENT_LIKED_ID FROM LIKED_COMMENT WHERE USERNAME = :username AND COMMENT_LIKED_ID IN (:likedIds)")
+    List<Long> findLikedIdsIn(@Param("username")String username, @Param("likedIds")Collection<Long> likedIds);
+    //1 if the like is new, 0 if the user already liked it. The unique index catches the race between two of these
+    @Modifying
+    @Query("INSERT INTO LIKED_COMMENT(USERNAME, COMMENT_LIKED_ID) SELECT :username, :likedId WHERE NOT EXISTS (SELECT 1 FROM LIKED_COMMENT WHERE COMMENT_LIKED_ID = :likedId AND USERNAME = :username)")
+    int insertIfAbsent(@Param("username")String username, @Param("likedId")Long likedId);
+
     @Modifying
     @Query("DELETE FROM LIKED_COMMENT WHERE COMMENT_LIKED_ID = :likedId AND USERNAME = :username")
-    void deleteByUsernameAndCommentLikedId(@Param("username")String username, @Param("likedId")Long likedId);
+    int deleteByUsernameAndCommentLikedId(@Param("username")String username, @Param("likedId")Long likedId);
 }
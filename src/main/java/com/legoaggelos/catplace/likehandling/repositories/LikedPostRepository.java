@@ -7,11 +7,23 @@ import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+
 @Repository
 public interface LikedPostRepository extends CrudRepository<LikedPost, Long> {
     boolean existsByUsernameAndPostLikedId(String username, Long likedId);
 
+    //which of these the user liked, in one query that uses the unique (username, liked id) index
+    @Query("SELECT POST_LIKED_ID FROM LIKED_POST WHERE USERNAME = :username AND POST_LIKED_ID IN (:likedIds)")
+    List<Long> findLikedIdsIn(@Param("username")String username, @Param("likedIds")Collection<Long> likedIds);
+
+    //1 if the like is new, 0 if the user already liked it. The unique index catches the race between two of these
+    @Modifying
+    @Query("INSERT INTO LIKED_POST(USERNAME, POST_LIKED_ID) SELECT :username, :likedId WHERE NOT EXISTS (SELECT 1 FROM LIKED_POST WHERE POST_LIKED_ID = :likedId AND USERNAME = :username)")
+    int insertIfAbsent(@Param("username")String username, @Param("likedId")Long likedId);
+
     @Modifying
     @Query("DELETE FROM LIKED_POST WHERE POST_LIKED_ID = :likedId AND USERNAME = :username")
-    void deleteByUsernameAndPostLikedId(@Param("username")String username, @Param("likedId")Long likedId);
+    int deleteByUsernameAndPostLikedId(@Param("username")String username, @Param("likedId")Long likedId);
 }
@@ -1,23 +1,24 @@
 package com.legoaggelos.catplace.security;
 
 import com.legoaggelos.catplace.security.jwt.AuthTokenFilter;
+import com.legoaggelos.catplace.security.users.CatPlaceUserDetailsService;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
+import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
-import org.springframework.security.core.userdetails.User;
-import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
-import org.springframework.security.provisioning.JdbcUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.security.web.csrf.CookieCsrfTokenRepository;
 
-import javax.sql.DataSource;
+import java.time.Duration;
 
 @EnableWebSecurity(debug = true)
 @Configuration
@@ -33,14 +34,20 @@ public class SecurityConfig {
         http
                 .authorizeHttpRequests(request -> {
                             request
-                                    .requestMatchers(HttpMethod.GET, "/cats/**", "/users/**", "/catposts/**", "/catposts/fromCatId/**", "/catposts/fromOwnerId/**", "/cats/fromOwner/**", "/comments/**", "/comments/fromPoster/**", "/comments/fromPostId/**", "/comments/getFromReplyingTo/**", "/likedPost/**", "/likedComment/**")
+                                    .requestMatchers(HttpMethod.GET, "/cats/**", "/users/**", "/catposts/**", "/catposts/fromCatId/**", "/catposts/fromOwnerId/**", "/cats/fromOwner/**", "/comments/**", "/comments/fromPoster/**", "/comments/fromPostId/**", "/comments/getFromReplyingTo/**", "/likedPost/**", "/likedComment/**", "/feed")
                                     .permitAll();
                             request
                                     .requestMatchers(HttpMethod.GET, "/comments/getFromPostCatPoster/**", "/comments/getFromPostUserPoster/**", "/likedPost/fromId/**", "/likedComment/fromId/**")
                                     .hasRole("ADMIN"); //admin only testing methods
+                            request
+                                    .requestMatchers(HttpMethod.GET, "/actuator/metrics/**", "/actuator/startup")
+                                    .hasRole("ADMIN"); //thumbnail queue depth, processing time and bytes saved live here, and how long startup took
                             request
                                     .requestMatchers(HttpMethod.POST, "/users", "users/**")
                                     .permitAll();
+                            request
+                                    .requestMatchers(HttpMethod.POST, "/auth/token", "/auth/refresh")
+                                    .permitAll(); //where tokens come from
                             request.
                                     requestMatchers(HttpMethod.POST, "/cats/**", "/catposts/**", "/comments/**", "/likedComment/**", "/likedPost/**")
                                     .hasRole("USER");
@@ -50,6 +57,9 @@ public class SecurityConfig {
                             request.
                                     requestMatchers(HttpMethod.PUT, "/cats/**", "/users/**", "/catposts/**", "/comments/**")
                                     .hasRole("USER");
+                            request.
+                                    requestMatchers(HttpMethod.PATCH, "/catposts/**", "/comments/**")
+                                    .hasRole("USER");
                             request
                                     .requestMatchers(HttpMethod.PUT, "/likedComment/**", "/likedPost/**")
                                     .denyAll();
@@ -68,39 +78,11 @@ public class SecurityConfig {
         return new BCryptPasswordEncoder();
     }
 
+    //the test users come from seed-users.sql, with their passwords already hashed. They are loaded with one query and a cache
     @Bean
-    JdbcUserDetailsManager userDetailsService(DataSource dataSource, PasswordEncoder passwordEncoder) {
-        User.UserBuilder users = User.builder();
-        UserDetails legoaggelos =
-                users
-                        .username("paul")
-                        .password(passwordEncoder.encode("abc123"))
-                        .roles("USER")
-                        .build();
-        UserDetails hankOwnsNoCats =
-                users
-                        .username("hank-owns-no-cats")
-                        .password(passwordEncoder.encode("qrs456"))
-                        .roles("USER")
-                        .build();
-        UserDetails kat =
-                users
-                        .username("kat")
-                        .password(passwordEncoder.encode("xyz789"))
-                        .roles("USER")
-                        .build();
-        UserDetails admin =
-                users
-                        .username("legoaggelos")
-                        .password(passwordEncoder.encode("admin"))
-                        .roles("ADMIN", "USER")
-                        .build();
-        var jdbc = new JdbcUserDetailsManager(dataSource);
-        jdbc.createUser(kat);
-        jdbc.createUser(legoaggelos);
-        jdbc.createUser(hankOwnsNoCats);
-        jdbc.createUser(admin);
-        return jdbc;
+    CatPlaceUserDetailsService userDetailsService(JdbcClient jdbcClient, MeterRegistry meterRegistry,
+                                                  @Value("${catplace.users.cache-ttl:PT5M}") Duration cacheTtl, @Value("${catplace.users.cache-size:1024}") int cacheSize) {
+        return new CatPlaceUserDetailsService(jdbcClient, meterRegistry, cacheTtl, cacheSize);
     }
 
 
@@ -1,26 +1,36 @@
 package com.legoaggelos.catplace.security.deserializers;
 
+import com.fasterxml.jackson.core.Base64Variant;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.DeserializationContext;
 import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.legoaggelos.catplace.blobs.SpooledBlob;
 
-import javax.sql.rowset.serial.SerialBlob;
 import java.io.IOException;
-import java.sql.SQLException;
-import java.util.Base64;
+import java.sql.Blob;
 
-public class SerialBlobDeserializer extends JsonDeserializer<Object> {
+/**
+ * Decodes a base64 image straight from the parser into a {@link SpooledBlob}, chunk by chunk.
+ * The encoded text is never turned into a String and the decoded bytes never need to fit on the heap.
+ */
+public class SerialBlobDeserializer extends JsonDeserializer<Blob> {
 
     @Override
-    public Object deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
-        if (p.getText() != null) {
-            try {
-                return new SerialBlob(Base64.getDecoder().decode(p.getText()));
-            } catch (SQLException e) {
-                System.out.println("Error deserializing SerialBlob, please report this.\n" + e.getStackTrace());
-                return null;
-            }
+    public Blob deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (p.currentToken() == JsonToken.VALUE_NULL) {
+            return null;
         }
-        return null;
+        //Base64.getDecoder(), which this used to use, didn't insist on padding either
+        Base64Variant variant = ctxt.getBase64Variant().withReadPadding(Base64Variant.PaddingReadBehaviour.PADDING_ALLOWED);
+        SpooledBlob.Writer writer = new SpooledBlob.Writer();
+        try {
+            p.readBinaryValue(variant, writer);
+            writer.close();
+        } catch (IOException e) {
+            writer.discard();
+            throw e;
+        }
+        return writer.toBlob();
     }
 }
@@ -0,0 +1,80 @@
+package com.legoaggelos.catplace.security.jwt;
+
+import io.jsonwebtoken.Claims;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+
+//the password is checked once here, afterwards requests carry the access token instead of going through BCrypt every time
+@RestController
+@Lazy //made on the first request for a token
+@RequestMapping("/auth")
+public class AuthController {
+    private final JwtUtil jwtUtil;
+    private final PasswordVerifier passwordVerifier;
+    private final UserDetailsService userDetailsService;
+
+    public AuthController(JwtUtil jwtUtil, PasswordVerifier passwordVerifier, UserDetailsService userDetailsService) {
+        this.jwtUtil = jwtUtil;
+        this.passwordVerifier = passwordVerifier;
+        this.userDetailsService = userDetailsService;
+    }
+
+    public record TokenRequest(String username, String password) {
+    }
+
+    public record RefreshRequest(String refreshToken) {
+    }
+
+    public record Tokens(String accessToken, String refreshToken, long expiresIn/*seconds the access token lasts*/) {
+    }
+
+    @PostMapping("/token")
+    private ResponseEntity<Tokens> token(@RequestBody TokenRequest request) throws InterruptedException {
+        if (request.username() == null || request.password() == null) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            if (!passwordVerifier.verify(request.username(), request.password())) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+            }
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1").build();
+        }
+        return ResponseEntity.ok(tokensFor(request.username()));
+    }
+
+    //a new pair for a refresh token, as long as the user can still log in. No password, so no BCrypt
+    @PostMapping("/refresh")
+    private ResponseEntity<Tokens> refresh(@RequestBody RefreshRequest request) {
+        Optional<Claims> claims = request.refreshToken() == null ? Optional.empty() : jwtUtil.parseClaims(request.refreshToken(), JwtUtil.REFRESH);
+        if (claims.isEmpty()) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        String username = claims.get().getSubject();
+        try {
+            UserDetails user = userDetailsService.loadUserByUsername(username);
+            if (!user.isEnabled()) {
+                return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+            }
+        } catch (UsernameNotFoundException e) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).build();
+        }
+        return ResponseEntity.ok(tokensFor(username));
+    }
+
+    private Tokens tokensFor(String username) {
+        return new Tokens(jwtUtil.generateToken(username), jwtUtil.generateRefreshToken(username), jwtUtil.getExpirationMs() / 1000);
+    }
+}
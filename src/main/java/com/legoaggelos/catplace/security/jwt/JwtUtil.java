@@ -3,61 +3,133 @@ package com.legoaggelos.catplace.security.jwt;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
 import io.jsonwebtoken.security.SecureDigestAlgorithm;
-import jakarta.annotation.PostConstruct;
+import io.jsonwebtoken.security.SecurityException; //not java.lang's, a bad signature throws this one
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 import javax.crypto.SecretKey;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Instant;
 import java.time.ZoneOffset;
+import java.util.Base64;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 @Component
 public class JwtUtil {
-    @Value("${jwt.secret}")
-    private String jwtSecret;
-    @Value("${jwt.expiration}")
-    private int jwtExpirationMs;
-    private SecretKey key;
-    // Initializes the key after the class is instantiated and the jwtSecret is injected,
-    // preventing the repeated creation of the key and enhancing performance
-    @PostConstruct
-    public void init() {
+    private static final Logger log = LoggerFactory.getLogger(JwtUtil.class);
+    // Refresh tokens only get new tokens from /auth/refresh, they don't authenticate requests
+    public static final String TYPE_CLAIM = "type";
+    public static final String ACCESS = "access";
+    public static final String REFRESH = "refresh";
+    private final int jwtExpirationMs;
+    private final long refreshExpirationMs;
+    // The key and the parser are made once, parsing a token is the only per request work
+    private final SecretKey key;
+    private final JwtParser parser;
+    // Claims of recently verified tokens, by the sha-256 of the token, least recently used first.
+    // A client sends the same token with every request until it expires, so its signature is only checked once
+    private final Map<String, Claims> verified;
+
+    public JwtUtil(@Value("${jwt.secret}") String jwtSecret, @Value("${jwt.expiration}") int jwtExpirationMs, @Value("${jwt.refresh-expiration:604800000}") long refreshExpirationMs,
+                   @Value("${jwt.cache-size:1024}") int cacheSize) {
+        this.jwtExpirationMs = jwtExpirationMs;
+        this.refreshExpirationMs = refreshExpirationMs;
         this.key = Keys.hmacShaKeyFor(jwtSecret.getBytes(StandardCharsets.UTF_8));
+        this.parser = Jwts.parser().verifyWith(key).build();
+        this.verified = new LinkedHashMap<>(cacheSize * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Claims> eldest) {
+                return size() > cacheSize;
+            }
+        };
     }
     // Generate JWT token
     public String generateToken(String username) {
+        return generate(username, ACCESS, jwtExpirationMs);
+    }
+    // Generate a token that can only be traded for new tokens
+    public String generateRefreshToken(String username) {
+        return generate(username, REFRESH, refreshExpirationMs);
+    }
+    public int getExpirationMs() {
+        return jwtExpirationMs;
+    }
+    private String generate(String username, String type, long expirationMs) {
         var now = Date.from(Instant.now());
         return Jwts.builder()
                 .subject(username)
+                .claim(TYPE_CLAIM, type)
                 .issuedAt(now)
-                .expiration(new Date(now.getTime()+jwtExpirationMs))
+                .expiration(new Date(now.getTime()+expirationMs))
                 .signWith(key, SignatureAlgorithm.HS256)
                 .compact();
     }
-    // Get username from JWT token
-    public String getUsernameFromToken(String token) {
-        return Jwts.parser()
-                .verifyWith(key).build()
-                .parseSignedClaims(token)
-                .getPayload()
-                .getSubject();
-    }
-    // Validate JWT token
-    public boolean validateJwtToken(String token) {
+    // Validates the token and returns its claims, empty if it is invalid or expired
+    public Optional<Claims> parseClaims(String token) {
+        String hash = sha256(token);
+        Claims claims;
+        synchronized (verified) {
+            claims = verified.get(hash);
+        }
+        if (claims != null) {
+            if (claims.getExpiration() == null || claims.getExpiration().after(new Date())) {
+                return Optional.of(claims);
+            }
+            synchronized (verified) {
+                verified.remove(hash);
+            }
+            log.debug("JWT token is expired: {}", claims.getExpiration());
+            return Optional.empty();
+        }
         try {
-            Jwts.parser().verifyWith(key).build().parseSignedClaims(token);
-            return true;
+            claims = parser.parseSignedClaims(token).getPayload();
         } catch (SecurityException e) {
-            System.out.println("Invalid JWT signature: " + e.getMessage());
+            log.debug("Invalid JWT signature: {}", e.getMessage());
+            return Optional.empty();
         } catch (MalformedJwtException e) {
-            System.out.println("Invalid JWT token: " + e.getMessage());
+            log.debug("Invalid JWT token: {}", e.getMessage());
+            return Optional.empty();
         } catch (ExpiredJwtException e) {
-            System.out.println("JWT token is expired: " + e.getMessage());
+            log.debug("JWT token is expired: {}", e.getMessage());
+            return Optional.empty();
         } catch (UnsupportedJwtException e) {
-            System.out.println("JWT token is unsupported: " + e.getMessage());
+            log.debug("JWT token is unsupported: {}", e.getMessage());
+            return Optional.empty();
         } catch (IllegalArgumentException e) {
-            System.out.println("JWT claims string is empty: " + e.getMessage());
+            log.debug("JWT claims string is empty: {}", e.getMessage());
+            return Optional.empty();
+        }
+        synchronized (verified) {
+            verified.put(hash, claims);
+        }
+        return Optional.of(claims);
+    }
+    // Same as parseClaims, but only for tokens of that type. Tokens from before types were added are access tokens
+    public Optional<Claims> parseClaims(String token, String type) {
+        return parseClaims(token).filter(claims -> type.equals(Objects.requireNonNullElse(claims.get(TYPE_CLAIM, String.class), ACCESS)));
+    }
+    // Get username from JWT token
+    public String getUsernameFromToken(String token) {
+        return parseClaims(token)
+                .map(Claims::getSubject)
+                .orElseThrow(() -> new MalformedJwtException("Not a valid token"));
+    }
+    // Validate JWT token
+    public boolean validateJwtToken(String token) {
+        return parseClaims(token).isPresent();
+    }
+
+    private static String sha256(String token) {
+        try {
+            return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has SHA-256", e);
         }
-        return false;
     }
 }
@@ -0,0 +1,68 @@
+package com.legoaggelos.catplace.security.jwt;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks passwords for /auth/token on its own few threads. BCrypt is slow on purpose, so a burst of logins, or of guesses,
+ * can only use {@code catplace.auth.bcrypt-threads} cores, and once {@code catplace.auth.bcrypt-queue} more are waiting
+ * the rest are turned away with a {@link RejectedExecutionException} instead of piling up.
+ * Unknown users cost a check against a dummy hash, as in DaoAuthenticationProvider, so timing doesn't tell which usernames exist
+ * and every attempt takes its turn on the threads.
+ */
+@Component
+@Lazy //its threads aren't started until the first login asks for them
+public class PasswordVerifier {
+    private final UserDetailsService userDetailsService;
+    private final PasswordEncoder passwordEncoder;
+    private final ThreadPoolExecutor executor;
+    private final String dummyHash;
+
+    public PasswordVerifier(UserDetailsService userDetailsService, PasswordEncoder passwordEncoder,
+                            @Value("${catplace.auth.bcrypt-threads:2}") int threads,
+                            @Value("${catplace.auth.bcrypt-queue:32}") int queueCapacity) {
+        this.userDetailsService = userDetailsService;
+        this.passwordEncoder = passwordEncoder;
+        this.dummyHash = passwordEncoder.encode("userNotFoundPassword");
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+            Thread thread = new Thread(runnable, "bcrypt-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Whether the user exists, is enabled and has this password.
+     * @throws RejectedExecutionException when too many are already waiting
+     */
+    public boolean verify(String username, String password) throws InterruptedException {
+        Future<Boolean> verified = executor.submit(() -> {
+            try {
+                UserDetails user = userDetailsService.loadUserByUsername(username);
+                return passwordEncoder.matches(password, user.getPassword()) && user.isEnabled();
+            } catch (UsernameNotFoundException e) {
+                passwordEncoder.matches(password, dummyHash);
+                return false;
+            }
+        });
+        try {
+            return verified.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not verify the password of " + username, e.getCause());
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package com.legoaggelos.catplace.security.users;
+
+import com.legoaggelos.catplace.cats.posts.Timeline;
+import com.legoaggelos.catplace.cats.posts.comments.CommentCounts;
+import com.legoaggelos.catplace.likehandling.LikeCounters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes an account with everything that references it, in the order the foreign keys need: the user's likes, the comments they wrote
+ * and the comments on their posts, their posts and the posts of their cats, their cats, and then the user.
+ * Every step deletes {@code catplace.accounts.deletion-chunk-size} rows per transaction, so no lock is held for the whole account,
+ * and the chunk commits together with the progress in ACCOUNT_DELETION. A restart carries on from the step it was in; the steps only
+ * delete what is still there, so running one again is harmless.
+ * The work happens on one background thread, accounts are deleted one after the other. The thread only waits on the database,
+ * so with {@code spring.threads.virtual.enabled} on Java 21 it is a virtual one.
+ */
+@Component
+public class AccountDeletion {
+    private static final Logger log = LoggerFactory.getLogger(AccountDeletion.class);
+
+    public enum Step { LIKES, COMMENTS, POSTS, CATS, USER, DONE }
+
+    public record Status(String username, Step step, long rowsDeleted, OffsetDateTime requestedAt, OffsetDateTime finishedAt) {
+    }
+
+    private final JdbcClient jdbcClient;
+    private final TransactionTemplate transactionTemplate;
+    private final LikeCounters likeCounters;
+    private final CommentCounts commentCounts;
+    private final Timeline timeline;
+    private final int chunkSize;
+    private final ThreadPoolExecutor executor;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+
+    public AccountDeletion(JdbcClient jdbcClient, TransactionTemplate transactionTemplate, LikeCounters likeCounters, CommentCounts commentCounts,
+                           Timeline timeline, @Value("${catplace.accounts.deletion-chunk-size:500}") int chunkSize, Environment environment) {
+        this.jdbcClient = jdbcClient;
+        this.transactionTemplate = transactionTemplate;
+        this.likeCounters = likeCounters;
+        this.commentCounts = commentCounts;
+        this.timeline = timeline;
+        this.chunkSize = chunkSize;
+        ThreadFactory threadFactory = Threading.VIRTUAL.isActive(environment)
+                ? new VirtualThreadTaskExecutor("account-deletion-").getVirtualThreadFactory() //virtual threads are always daemons
+                : runnable -> {
+                    Thread thread = new Thread(runnable, "account-deletion");
+                    thread.setDaemon(true);
+                    return thread;
+                };
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory);
+    }
+
+    /**
+     * Starts deleting the account, unless it already is being deleted.
+     */
+    public void start(String username) {
+        jdbcClient.sql("merge into ACCOUNT_DELETION(USERNAME, STEP, ROWS_DELETED, REQUESTED_AT, FINISHED_AT) key (USERNAME) select :username, :step, 0, :requestedAt, null where not exists (select 1 from ACCOUNT_DELETION where USERNAME = :username and FINISHED_AT is null)")
+                .param("username", username)
+                .param("step", Step.LIKES.name())
+                .param("requestedAt", OffsetDateTime.now(ZoneOffset.UTC))
+                .update();
+        submit(username);
+    }
+
+    public Optional<Status> status(String username) {
+        return jdbcClient.sql("select USERNAME, STEP, ROWS_DELETED, REQUESTED_AT, FINISHED_AT from ACCOUNT_DELETION where USERNAME = :username")
+                .param("username", username)
+                .query((rs, rowNum) -> new Status(rs.getString("USERNAME"), Step.valueOf(rs.getString("STEP")), rs.getLong("ROWS_DELETED"),
+                        rs.getObject("REQUESTED_AT", OffsetDateTime.class), rs.getObject("FINISHED_AT", OffsetDateTime.class)))
+                .optional();
+    }
+
+    //deletions a restart or a failed step left unfinished
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${catplace.accounts.deletion-retry-interval:PT5M}", initialDelayString = "${catplace.accounts.deletion-retry-interval:PT5M}")
+    public void resumeUnfinished() {
+        jdbcClient.sql("select USERNAME from ACCOUNT_DELETION where FINISHED_AT is null order by REQUESTED_AT")
+                .query(String.class)
+                .list()
+                .forEach(this::submit);
+    }
+
+    private void submit(String username) {
+        if (!inFlight.add(username)) {
+            return; //already queued or running
+        }
+        executor.execute(() -> {
+            try {
+                run(username);
+            } catch (RuntimeException e) {
+                log.warn("Could not finish deleting account {}, will retry", username, e);
+            } finally {
+                inFlight.remove(username);
+            }
+        });
+    }
+
+    private void run(String username) {
+        Step step = status(username).map(Status::step).orElse(Step.DONE);
+        while (step != Step.DONE) {
+            if (deleteChunk(username, step) == 0) {
+                step = Step.values()[step.ordinal() + 1];
+                checkpoint(username, step);
+            }
+        }
+        log.info("Deleted account {}", username);
+    }
+
+    private void checkpoint(String username, Step step) {
+        jdbcClient.sql("update ACCOUNT_DELETION set STEP = :step, FINISHED_AT = :finishedAt where USERNAME = :username")
+                .param("username", username)
+                .param("step", step.name())
+                .param("finishedAt", step == Step.DONE ? OffsetDateTime.now(ZoneOffset.UTC) : null)
+                .update();
+    }
+
+    //one transaction, which also counts what it deleted. 0 once the step has nothing left
+    private int deleteChunk(String username, Step step) {
+        ChunkResult chunk;
+        try {
+            chunk = transactionTemplate.execute(status -> {
+                ChunkResult deleted = deleteChunkOf(username, step);
+                jdbcClient.sql("update ACCOUNT_DELETION set ROWS_DELETED = ROWS_DELETED + :deleted where USERNAME = :username")
+                        .param("username", username)
+                        .param("deleted", deleted.deleted())
+                        .update();
+                return deleted;
+            });
+        } catch (DataIntegrityViolationException e) {
+            //the account was still in use and something new references it. Start over, the steps before skip what they already deleted
+            checkpoint(username, Step.LIKES);
+            throw e;
+        }
+        chunk.afterCommit().run();
+        return chunk.deleted();
+    }
+
+    private ChunkResult deleteChunkOf(String username, Step step) {
+        return switch (step) {
+            case LIKES -> deleteLikes(username);
+            case COMMENTS -> deleteComments(username);
+            case POSTS -> deletePosts(username);
+            case CATS -> new ChunkResult(jdbcClient.sql("delete from cat where OWNER = :username fetch first :chunk rows only")
+                    .param("username", username)
+                    .param("chunk", chunkSize)
+                    .update(), () -> {});
+            case USER -> new ChunkResult(jdbcClient.sql("delete from CAT_PLACE_USER where USERNAME = :username")
+                    .param("username", username)
+                    .update(), () -> {});
+            case DONE -> throw new IllegalStateException("Nothing left to delete of " + username);
+        };
+    }
+
+    //what a chunk deleted, and what to tell the in memory state once it is committed
+    private record ChunkResult(int deleted, Runnable afterCommit) {
+    }
+
+    //likes the user gave, the counts they were in go down like for any unlike
+    private ChunkResult deleteLikes(String username) {
+        List<Long> posts = jdbcClient.sql("select POST_LIKED_ID from LIKED_POST where USERNAME = :username fetch first :chunk rows only")
+                .param("username", username)
+                .param("chunk", chunkSize)
+                .query(Long.class)
+                .list();
+        List<Long> comments = jdbcClient.sql("select COMMENT_LIKED_ID from LIKED_COMMENT where USERNAME = :username fetch first :chunk rows only")
+                .param("username", username)
+                .param("chunk", chunkSize)
+                .query(Long.class)
+                .list();
+        int deleted = 0;
+        if (!posts.isEmpty()) {
+            deleted += jdbcClient.sql("delete from LIKED_POST where USERNAME = :username and POST_LIKED_ID in (:ids)")
+                    .param("username", username)
+                    .param("ids", posts)
+                    .update();
+        }
+        if (!comments.isEmpty()) {
+            deleted += jdbcClient.sql("delete from LIKED_COMMENT where USERNAME = :username and COMMENT_LIKED_ID in (:ids)")
+                    .param("username", username)
+                    .param("ids", comments)
+                    .update();
+        }
+        return new ChunkResult(deleted, () -> {
+            posts.forEach(id -> likeCounters.addPostLikes(id, -1));
+            comments.forEach(id -> likeCounters.addCommentLikes(id, -1));
+        });
+    }
+
+    //comments the user wrote and comments on the user's posts, with everyone's likes of them
+    private ChunkResult deleteComments(String username) {
+        List<Long> ids = jdbcClient.sql("select ID from COMMENT where POSTER = :username union select ID from COMMENT where POST_USER_POSTER = :username fetch first :chunk rows only")
+                .param("username", username)
+                .param("chunk", chunkSize)
+                .query(Long.class)
+                .list();
+        if (ids.isEmpty()) {
+            return new ChunkResult(0, () -> {});
+        }
+        List<Long> postIds = jdbcClient.sql("select distinct POST_ID from COMMENT where ID in (:ids)")
+                .param("ids", ids)
+                .query(Long.class)
+                .list();
+        List<Long> parentIds = jdbcClient.sql("select distinct REPLYING_TO from COMMENT where ID in (:ids) and REPLYING_TO is not null")
+                .param("ids", ids)
+                .query(Long.class)
+                .list();
+        jdbcClient.sql("delete from LIKED_COMMENT where COMMENT_LIKED_ID in (:ids)")
+                .param("ids", ids)
+                .update();
+        int deleted = jdbcClient.sql("delete from COMMENT where ID in (:ids)")
+                .param("ids", ids)
+                .update();
+        commentCounts.recount(postIds, parentIds);
+        return new ChunkResult(deleted, () -> {});
+    }
+
+    //posts of the user and of the user's cats, with whatever comments and likes they still have
+    private ChunkResult deletePosts(String username) {
+        List<Long> ids = jdbcClient.sql("select ID from POST where USER_OWNER = :username union select ID from POST where CAT_OWNER in (select ID from cat where OWNER = :username) fetch first :chunk rows only")
+                .param("username", username)
+                .param("chunk", chunkSize)
+                .query(Long.class)
+                .list();
+        if (ids.isEmpty()) {
+            return new ChunkResult(0, () -> {});
+        }
+        //comments someone wrote since the comments step
+        jdbcClient.sql("delete from LIKED_COMMENT where COMMENT_LIKED_ID in (select ID from COMMENT where POST_ID in (:ids))")
+                .param("ids", ids)
+                .update();
+        jdbcClient.sql("delete from COMMENT where POST_ID in (:ids)")
+                .param("ids", ids)
+                .update();
+        jdbcClient.sql("delete from LIKED_POST where POST_LIKED_ID in (:ids)")
+                .param("ids", ids)
+                .update();
+        int deleted = jdbcClient.sql("delete from POST where ID in (:ids)") //their TIMELINE rows go with them
+                .param("ids", ids)
+                .update();
+        return new ChunkResult(deleted, () -> timeline.removeAll(new HashSet<>(ids)));
+    }
+}
@@ -0,0 +1,45 @@
+package com.legoaggelos.catplace.security.users;
+
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+
+import java.util.Collection;
+
+/**
+ * The user a request is authenticated as, over HTTP Basic or a JWT. Its roles are worked out once, when it is loaded,
+ * into a bitmask, so the permission checks every controller does are a bit test.
+ */
+public class CatPlacePrincipal extends User {
+    public static final int USER = 1;
+    public static final int ADMIN = 1 << 1;
+
+    private final int roles;
+
+    public CatPlacePrincipal(String username, String password, boolean enabled, Collection<? extends GrantedAuthority> authorities) {
+        super(username, password, enabled, true, true, true, authorities);
+        int roles = 0;
+        for (GrantedAuthority authority : authorities) {
+            switch (authority.getAuthority()) {
+                case "ROLE_USER" -> roles |= USER;
+                case "ROLE_ADMIN" -> roles |= ADMIN;
+                default -> {
+                }
+            }
+        }
+        this.roles = roles;
+    }
+
+    //a fresh one, the password of which authentication is free to erase
+    public static CatPlacePrincipal copyOf(UserDetails user) {
+        return new CatPlacePrincipal(user.getUsername(), user.getPassword(), user.isEnabled(), user.getAuthorities());
+    }
+
+    public boolean hasRole(int role) {
+        return (roles & role) == role;
+    }
+
+    public boolean isAdmin() {
+        return hasRole(ADMIN);
+    }
+}
@@ -4,7 +4,9 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.legoaggelos.catplace.blobs.ThumbnailPipeline;
 import com.legoaggelos.catplace.security.deserializers.SerialBlobDeserializer;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.PersistenceCreator;
@@ -14,7 +16,7 @@ import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 
-import javax.sql.rowset.serial.SerialBlob;
+import java.sql.Blob;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -23,14 +25,14 @@ import java.util.List;
 public class CatPlaceUser implements Persistable<String> {
     private final @Id String username;
     private String displayName;
-    private SerialBlob profilePicture;
+    private Blob profilePicture;
     private String bio;
     private String email;
     private List<String> roles;
     @Transient
     private boolean isNew = true;
 
-    public CatPlaceUser(String displayName, String username, SerialBlob profilePicture, String bio, String email, boolean isAdmin, boolean isNew) {
+    public CatPlaceUser(String displayName, String username, Blob profilePicture, String bio, String email, boolean isAdmin, boolean isNew) {
         this.username = username;
         this.displayName = displayName;
         this.profilePicture = profilePicture;
@@ -44,7 +46,7 @@ public class CatPlaceUser implements Persistable<String> {
         this.isNew=isNew;
     }
     @JsonCreator
-    public CatPlaceUser(String displayName, String username, @JsonDeserialize(using = SerialBlobDeserializer.class) SerialBlob profilePicture, String bio, String email, boolean isAdmin) {
+    public CatPlaceUser(String displayName, String username, @JsonDeserialize(using = SerialBlobDeserializer.class) Blob profilePicture, String bio, String email, boolean isAdmin) {
         this.username = username;
         this.displayName = displayName;
         this.profilePicture = profilePicture;
@@ -57,7 +59,7 @@ public class CatPlaceUser implements Persistable<String> {
         }
     }
 
-    public CatPlaceUser(String displayName, String username, SerialBlob profilePicture, String bio, String email) {
+    public CatPlaceUser(String displayName, String username, Blob profilePicture, String bio, String email) {
         this.username = username;
         this.displayName = displayName;
         this.profilePicture = profilePicture;
@@ -86,10 +88,20 @@ public class CatPlaceUser implements Persistable<String> {
         roles.add("USER");
     }
 
-    public SerialBlob getProfilePicture() {
+    @JsonInclude(JsonInclude.Include.NON_EMPTY) //uploaded inline, downloaded from profilePictureUrl
+    public Blob getProfilePicture() {
         return profilePicture;
     }
 
+    public String getProfilePictureUrl() {
+        return profilePicture == null ? null : "/users/" + username + "/picture";
+    }
+
+    public String getProfilePictureThumbnailUrl() {
+        String profilePictureUrl = getProfilePictureUrl();
+        return profilePictureUrl == null ? null : profilePictureUrl + "?size=" + ThumbnailPipeline.PREVIEW_SIZE;
+    }
+
     public String getBio() {
         return bio;
     }
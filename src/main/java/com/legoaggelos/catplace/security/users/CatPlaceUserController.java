@@ -1,17 +1,25 @@
 package com.legoaggelos.catplace.security.users;
 
+import com.legoaggelos.catplace.blobs.BlobDownloads;
+import com.legoaggelos.catplace.blobs.BlobUploads;
 import com.legoaggelos.catplace.cats.Cat;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.util.UriComponentsBuilder;
 
 import javax.sql.rowset.serial.SerialBlob;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.sql.Blob;
 import java.sql.SQLException;
 import java.time.OffsetDateTime;
 import java.util.Optional;
@@ -22,9 +30,15 @@ import static com.legoaggelos.catplace.security.util.AdminCertifier.isAdmin;
 @RequestMapping("/users")
 public class CatPlaceUserController {
     private final CatPlaceUserRepository catPlaceUserRepository;
+    private final BlobDownloads blobDownloads;
+    private final BlobUploads blobUploads;
+    private final AccountDeletion accountDeletion;
 
-    public CatPlaceUserController(CatPlaceUserRepository catPlaceUserRepository) {
+    public CatPlaceUserController(CatPlaceUserRepository catPlaceUserRepository, BlobDownloads blobDownloads, BlobUploads blobUploads, AccountDeletion accountDeletion) {
         this.catPlaceUserRepository = catPlaceUserRepository;
+        this.blobDownloads = blobDownloads;
+        this.blobUploads = blobUploads;
+        this.accountDeletion = accountDeletion;
     }
     @GetMapping("/{requestedUsername}")
     private ResponseEntity<CatPlaceUser> findByUsername(@PathVariable String requestedUsername) {
@@ -36,12 +50,40 @@ public class CatPlaceUserController {
         }
     }
 
+    @GetMapping("/{requestedUsername}/picture")
+    private void findPictureByUsername(@PathVariable String requestedUsername, @RequestParam(required = false) Integer size,
+                                       HttpServletRequest request, HttpServletResponse response) throws IOException {
+        Optional<CatPlaceUser> catPlaceUser = catPlaceUserRepository.findByUsername(requestedUsername);
+        if (catPlaceUser.isEmpty()) {
+            response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        blobDownloads.serve(catPlaceUser.get().getProfilePicture(), size, request, response);
+    }
+
     @PostMapping
     private ResponseEntity<Void> createCatPlaceUser(@RequestBody CatPlaceUser newCatPlaceUserRequest, UriComponentsBuilder ucb, OutputStream outputStream, Authentication authentication) {
+        return saveNewCatPlaceUser(newCatPlaceUserRequest, ucb);
+    }
+
+    //same as createCatPlaceUser, but the picture is its own part instead of base64 inside the json
+    @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    private ResponseEntity<Void> createCatPlaceUserFromParts(@RequestPart("user") CatPlaceUser newCatPlaceUserRequest, @RequestPart(value = "profilePicture", required = false) MultipartFile profilePicture, UriComponentsBuilder ucb) throws IOException {
+        if (profilePicture == null || profilePicture.isEmpty()) {
+            return saveNewCatPlaceUser(newCatPlaceUserRequest, ucb); //gets the default picture
+        }
+        if (catPlaceUserRepository.existsByUsername(newCatPlaceUserRequest.getUsername())) {
+            return ResponseEntity.badRequest().header("message", "Username "+newCatPlaceUserRequest.getUsername()+" is already taken.").build(); //checked before storing the picture too
+        }
+        CatPlaceUser withPicture = new CatPlaceUser(newCatPlaceUserRequest.getDisplayName(), newCatPlaceUserRequest.getUsername(), blobUploads.store(profilePicture), newCatPlaceUserRequest.getBio(), newCatPlaceUserRequest.getEmail(), false);
+        return saveNewCatPlaceUser(withPicture, ucb);
+    }
+
+    private ResponseEntity<Void> saveNewCatPlaceUser(CatPlaceUser newCatPlaceUserRequest, UriComponentsBuilder ucb) {
         if (catPlaceUserRepository.existsByUsername(newCatPlaceUserRequest.getUsername())) {
             return ResponseEntity.badRequest().header("message", "Username "+newCatPlaceUserRequest.getUsername()+" is already taken.").build();
         }
-        SerialBlob profilePicture = newCatPlaceUserRequest.getProfilePicture();
+        Blob profilePicture = newCatPlaceUserRequest.getProfilePicture();
         try {
             if (profilePicture == null) {
                 profilePicture = new SerialBlob(Files.readAllBytes(Path.of("4.jpg")));
@@ -58,16 +100,47 @@ public class CatPlaceUserController {
         return ResponseEntity.created(locationOfNewCat).build();
     }
 
+    //the user's likes, comments, posts and cats go too, in the background. The Location is where to follow it
     @DeleteMapping("/{requestedUsername}")
-    private ResponseEntity<Void> deleteCatPlaceUser(@PathVariable String requestedUsername, Authentication authentication) {
+    private ResponseEntity<Void> deleteCatPlaceUser(@PathVariable String requestedUsername, UriComponentsBuilder ucb, Authentication authentication) {
         boolean admin = isAdmin(authentication);
         if (catPlaceUserRepository.existsByUsername(requestedUsername) && (requestedUsername.equals(authentication.getName()) || admin)) {
-            catPlaceUserRepository.deleteById(requestedUsername);
-            return ResponseEntity.noContent().build();
+            accountDeletion.start(requestedUsername);
+            URI locationOfDeletion = ucb
+                    .path("/users/{username}/deletion")
+                    .buildAndExpand(requestedUsername)
+                    .toUri();
+            return ResponseEntity.accepted().location(locationOfDeletion).build();
         }
         return ResponseEntity.notFound().build();
     }
 
+    //only for the user and admins, also once the user is gone
+    @GetMapping("/{requestedUsername}/deletion")
+    private ResponseEntity<AccountDeletion.Status> getDeletion(@PathVariable String requestedUsername, Authentication authentication) {
+        if (authentication == null || !(requestedUsername.equals(authentication.getName()) || isAdmin(authentication))) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.of(accountDeletion.status(requestedUsername));
+    }
+
+    //the body is the picture itself
+    @PutMapping(value = "/{requestedUsername}/picture", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    private ResponseEntity<Void> putPicture(@PathVariable String requestedUsername, InputStream picture, HttpServletRequest request, Authentication authentication) throws IOException {
+        boolean admin = isAdmin(authentication);
+        Optional<CatPlaceUser> catPlaceUser = catPlaceUserRepository.findByUsername(requestedUsername);
+        if (catPlaceUser.isEmpty() || (!admin && !authentication.getName().equals(requestedUsername))) {
+            return ResponseEntity.notFound().build();
+        }
+        if (request.getContentLengthLong() == 0) {
+            return ResponseEntity.badRequest().build();
+        }
+        CatPlaceUser user = catPlaceUser.get();
+        CatPlaceUser update = new CatPlaceUser(user.getDisplayName(), requestedUsername, blobUploads.store(picture), user.getBio(), user.getEmail(), user.isAdmin(), false);
+        catPlaceUserRepository.save(update);
+        return ResponseEntity.noContent().build();
+    }
+
     @PutMapping("/{requestedUsername}")
     private ResponseEntity<Void> putCatPlaceUser(@PathVariable String requestedUsername, @RequestBody CatPlaceUser newCatPlaceUserRequest, UriComponentsBuilder ucb, Authentication authentication) {
         boolean admin = isAdmin(authentication);
@@ -77,7 +150,8 @@ public class CatPlaceUserController {
         } else if ((!admin && !authentication.getName().equals(catPlaceUser.get().getUsername()))) {
             return ResponseEntity.notFound().build();
         }
-        CatPlaceUser newCatPlaceUser = new CatPlaceUser(newCatPlaceUserRequest.getDisplayName(), requestedUsername, newCatPlaceUserRequest.getProfilePicture(), (admin) ? catPlaceUser.get().getBio()/*should not let admin update bio*/ : newCatPlaceUserRequest.getBio(), newCatPlaceUserRequest.getEmail(), newCatPlaceUserRequest.isAdmin() && admin, false);
+        Blob profilePicture = newCatPlaceUserRequest.getProfilePicture() != null ? newCatPlaceUserRequest.getProfilePicture() : catPlaceUser.get().getProfilePicture(); //responses only carry the url, so a missing picture means keep the current one
+        CatPlaceUser newCatPlaceUser = new CatPlaceUser(newCatPlaceUserRequest.getDisplayName(), requestedUsername, profilePicture, (admin) ? catPlaceUser.get().getBio()/*should not let admin update bio*/ : newCatPlaceUserRequest.getBio(), newCatPlaceUserRequest.getEmail(), newCatPlaceUserRequest.isAdmin() && admin, false);
         catPlaceUserRepository.save(newCatPlaceUser);
         return ResponseEntity.noContent().build();
     }
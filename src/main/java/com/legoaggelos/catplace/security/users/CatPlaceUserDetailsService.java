@@ -0,0 +1,113 @@
+package com.legoaggelos.catplace.security.users;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads a user from USERS and authorities with one join, for HTTP Basic and for every request with a JWT.
+ * Users loaded in the last {@code catplace.users.cache-ttl} come from memory, at most {@code catplace.users.cache-size} of them,
+ * least recently used go first. Nothing in the application writes USERS or AUTHORITIES, they come from seed-users.sql, so a change made
+ * in the database takes effect once the cached user expires. Code that starts writing them should call {@link #evict(String)}.
+ * Hits and misses are counted in catplace.users.cache.requests. The users are {@link CatPlacePrincipal}s.
+ */
+public class CatPlaceUserDetailsService implements UserDetailsService {
+    private final JdbcClient jdbcClient;
+    private final Duration ttl;
+    private final Map<String, Cached> cache;
+    private final Counter hits;
+    private final Counter misses;
+
+    private record Cached(UserDetails user, Instant loadedAt) {
+    }
+
+    public CatPlaceUserDetailsService(JdbcClient jdbcClient, MeterRegistry meterRegistry, Duration ttl, int size) {
+        this.jdbcClient = jdbcClient;
+        this.ttl = ttl;
+        this.cache = new LinkedHashMap<>(size * 4 / 3 + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                return size() > size;
+            }
+        };
+        Gauge.builder("catplace.users.cache.size", this, CatPlaceUserDetailsService::cacheSize)
+                .description("Users whose details are in memory")
+                .register(meterRegistry);
+        this.hits = Counter.builder("catplace.users.cache.requests")
+                .tag("result", "hit")
+                .description("Users loaded for authentication, from memory or from the database")
+                .register(meterRegistry);
+        this.misses = Counter.builder("catplace.users.cache.requests")
+                .tag("result", "miss")
+                .description("Users loaded for authentication, from memory or from the database")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public UserDetails loadUserByUsername(String username) throws UsernameNotFoundException {
+        Cached cached;
+        synchronized (cache) {
+            cached = cache.get(username);
+        }
+        if (cached != null && cached.loadedAt().plus(ttl).isAfter(Instant.now())) {
+            hits.increment();
+            return copy(cached.user());
+        }
+        misses.increment();
+        UserDetails user = load(username);
+        synchronized (cache) {
+            cache.put(username, new Cached(user, Instant.now()));
+        }
+        return copy(user);
+    }
+
+    public void evict(String username) {
+        synchronized (cache) {
+            cache.remove(username);
+        }
+    }
+
+    //authentication erases the password of the UserDetails it gets, which mustn't be the cached one
+    private static UserDetails copy(UserDetails user) {
+        return CatPlacePrincipal.copyOf(user);
+    }
+
+    private UserDetails load(String username) {
+        List<Map<String, Object>> rows = jdbcClient.sql("select U.USERNAME, U.PASSWORD, U.ENABLED, A.AUTHORITY from USERS U left join AUTHORITIES A on A.USERNAME = U.USERNAME where U.USERNAME = :username")
+                .param("username", username)
+                .query()
+                .listOfRows();
+        if (rows.isEmpty()) {
+            throw new UsernameNotFoundException("User " + username + " not found");
+        }
+        List<SimpleGrantedAuthority> authorities = new ArrayList<>();
+        for (Map<String, Object> row : rows) {
+            if (row.get("AUTHORITY") != null) {
+                authorities.add(new SimpleGrantedAuthority((String) row.get("AUTHORITY")));
+            }
+        }
+        if (authorities.isEmpty()) {
+            throw new UsernameNotFoundException("User " + username + " has no authorities"); //as JdbcUserDetailsManager did
+        }
+        Map<String, Object> user = rows.get(0);
+        return new CatPlacePrincipal((String) user.get("USERNAME"), (String) user.get("PASSWORD"), (Boolean) user.get("ENABLED"), authorities);
+    }
+
+    private int cacheSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+}
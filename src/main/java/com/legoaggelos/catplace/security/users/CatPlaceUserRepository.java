@@ -1,7 +1,9 @@
 package com.legoaggelos.catplace.security.users;
 
+import org.springframework.data.jdbc.repository.query.Query;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.PagingAndSortingRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -10,4 +12,7 @@ import java.util.Optional;
 public interface CatPlaceUserRepository extends CrudRepository<CatPlaceUser, String>, PagingAndSortingRepository<CatPlaceUser, String> {
     Optional<CatPlaceUser> findByUsername(String username);
     boolean existsByUsername(String username);
+
+    @Query("select count(*) from CAT_PLACE_USER where PROFILE_PICTURE = :hash")
+    long countProfilePictureReferences(@Param("hash") String hash);
 }
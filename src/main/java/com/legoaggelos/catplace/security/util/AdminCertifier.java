@@ -1,5 +1,6 @@
 package com.legoaggelos.catplace.security.util;
 
+import com.legoaggelos.catplace.security.users.CatPlacePrincipal;
 import org.springframework.security.core.Authentication;
 
 public class AdminCertifier {
@@ -7,6 +8,9 @@ public class AdminCertifier {
         if (authentication==null) {
             return false;
         }
+        if (authentication.getPrincipal() instanceof CatPlacePrincipal principal) {
+            return principal.isAdmin(); //both Basic and JWT authenticate as one, the roles are already worked out
+        }
         return authentication.getAuthorities().toString().contains("ADMIN");
     }
 }
@@ -18,7 +18,7 @@ CREATE TABLE CAT_PLACE_USER
     DISPLAY_NAME    VARCHAR(50)        NOT NULL,
     username        VARCHAR(50) UNIQUE NOT NULL PRIMARY KEY,
     BIO             VARCHAR(1024)       DEFAULT '',
-    PROFILE_PICTURE BINARY LARGE OBJECT DEFAULT NULL,
+    PROFILE_PICTURE VARCHAR(64)         DEFAULT NULL, --sha-256 of the picture in the blob store
     EMAIL           VARCHAR(50)         DEFAULT NULL,
     ROLES           VARCHAR(50) ARRAY DEFAULT NULL
     --CONSTRAINT fk_cat_place_users FOREIGN KEY (username) REFERENCES USERS (username) removed because of tests, should be used in prod
@@ -30,7 +30,7 @@ CREATE TABLE cat
     NAME            VARCHAR(32)                                         NOT NULL,
     DATE_OF_BIRTH   TIMESTAMP WITH TIME ZONE DEFAULT NULL,
     OWNER           VARCHAR(50)                                         NOT NULL,
-    PROFILE_PICTURE BINARY LARGE OBJECT      DEFAULT NULL,
+    PROFILE_PICTURE VARCHAR(64)              DEFAULT NULL, --sha-256 of the picture in the blob store
     BIO             VARCHAR(1024)            DEFAULT '',
     IS_ALIVE        BOOLEAN                                             NOT NULL,
     CONSTRAINT fk_cat_owners FOREIGN KEY (OWNER) REFERENCES CAT_PLACE_USER (username)
@@ -46,13 +46,14 @@ CREATE TABLE cat
 CREATE TABLE POST
 (
     ID          BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY NOT NULL UNIQUE,
-    IMAGE       BINARY LARGE OBJECT                                 NOT NULL,
+    IMAGE       VARCHAR(64)                                         NOT NULL, --sha-256 of the image in the blob store
     LIKE_COUNT  BIGINT                                                       DEFAULT 0,
     CAT_OWNER   BIGINT                                              NOT NULL,
     USER_OWNER  VARCHAR(50)                                         NOT NULL,
     DESC        VARCHAR(4096)                                       NOT NULL DEFAULT '',
     UPLOAD_DATE TIMESTAMP WITH TIME ZONE                            NOT NULL,
     IS_APPROVED BOOLEAN                                                      DEFAULT UNKNOWN,
+    COMMENT_COUNT BIGINT                                            NOT NULL DEFAULT 0, --replies included. CommentCounts keeps it
     CONSTRAINT fk_post_posters_cat_place_users FOREIGN KEY (user_owner) REFERENCES CAT_PLACE_USER (username),
     CONSTRAINT fk_post_cat_poster_cat FOREIGN KEY (cat_owner) REFERENCES cat (ID)
 );
@@ -68,6 +69,7 @@ CREATE TABLE COMMENT
     POST_CAT_POSTER BIGINT                                              NOT NULL, --the cat who posted the post the comment belongs in
     POST_TIME       TIMESTAMP WITH TIME ZONE                            NOT NULL,
     REPLYING_TO     BIGINT DEFAULT NULL,                                           --null = not a reply!
+    REPLY_COUNT     BIGINT NOT NULL DEFAULT 0,                                     --direct replies only. CommentCounts keeps it
     CONSTRAINT fk_post_user_posters_cat_place_users FOREIGN KEY (post_user_poster) REFERENCES CAT_PLACE_USER (username),
     CONSTRAINT fk_comment_in_post_cat_poster_cat FOREIGN KEY (post_cat_poster) REFERENCES cat (ID),
     CONSTRAINT fk_comment_posters_cat_place_users FOREIGN KEY (poster) REFERENCES CAT_PLACE_USER (username),
@@ -81,7 +83,8 @@ CREATE TABLE liked_post
     username   VARCHAR(50)                                         NOT NULL,
     post_liked_id BIGINT                                              NOT NULL,
     CONSTRAINT FK_liked_posts_users FOREIGN KEY (username) REFERENCES CAT_PLACE_USER (username),
-    CONSTRAINT FK_liked_posts_ids FOREIGN KEY (post_liked_id) REFERENCES POST (ID)
+    CONSTRAINT FK_liked_posts_ids FOREIGN KEY (post_liked_id) REFERENCES POST (ID),
+    CONSTRAINT UQ_liked_posts_user_post UNIQUE (username, post_liked_id) --one like per user, and the index every like lookup uses
 );
 
 CREATE TABLE liked_comment
@@ -90,5 +93,61 @@ CREATE TABLE liked_comment
     username      VARCHAR(50)                                         NOT NULL,
     comment_liked_id BIGINT                                              NOT NULL,
     CONSTRAINT FK_liked_comments_users FOREIGN KEY (username) REFERENCES CAT_PLACE_USER (username),
-    CONSTRAINT FK_liked_comments_ids FOREIGN KEY (comment_liked_id) REFERENCES COMMENT (ID)
+    CONSTRAINT FK_liked_comments_ids FOREIGN KEY (comment_liked_id) REFERENCES COMMENT (ID),
+    CONSTRAINT UQ_liked_comments_user_comment UNIQUE (username, comment_liked_id)
+);
+
+-- one for every column a list endpoint filters on. They end in the column the list is sorted by and ID,
+-- so the newest rows are read straight off the index and a ?cursor= page seeks inside it. QueryPlanTests keeps every repository query on one of these
+CREATE INDEX ix_post_cat_owner ON POST (CAT_OWNER, UPLOAD_DATE, ID);
+CREATE INDEX ix_post_user_owner ON POST (USER_OWNER, UPLOAD_DATE, ID);
+-- H2 has no partial indexes. Pending posts are the ones with a null IS_APPROVED, which lead this index, so the moderation queue only reads those
+CREATE INDEX ix_post_pending ON POST (IS_APPROVED, UPLOAD_DATE, ID);
+CREATE INDEX ix_comment_post_id ON COMMENT (POST_ID, POST_TIME, ID);
+CREATE INDEX ix_comment_poster ON COMMENT (POSTER, POST_TIME, ID);
+CREATE INDEX ix_comment_replying_to ON COMMENT (REPLYING_TO, POST_TIME, ID);
+CREATE INDEX ix_comment_post_user_poster ON COMMENT (POST_USER_POSTER, POST_CAT_POSTER, POST_TIME);
+CREATE INDEX ix_comment_post_cat_poster ON COMMENT (POST_CAT_POSTER, POST_TIME);
+CREATE INDEX ix_cat_owner ON cat (OWNER, ID);
+
+-- used when counting how many rows still reference a blob before garbage collecting it
+CREATE INDEX ix_cat_place_user_profile_picture ON CAT_PLACE_USER (PROFILE_PICTURE);
+CREATE INDEX ix_cat_profile_picture ON cat (PROFILE_PICTURE);
+CREATE INDEX ix_post_image ON POST (IMAGE);
+
+-- smaller versions of uploaded images, made in the background by ThumbnailPipeline. The original is always kept
+CREATE TABLE IMAGE_DERIVATIVE
+(
+    SOURCE      VARCHAR(64) NOT NULL, --sha-256 of the original in the blob store
+    MAX_SIZE    INT         NOT NULL, --longest side of the derivative, in pixels
+    DERIVATIVE  VARCHAR(64) NOT NULL, --sha-256 of the derivative in the blob store
+    BYTES_SAVED BIGINT      NOT NULL,
+    PRIMARY KEY (SOURCE, MAX_SIZE)
+);
+CREATE INDEX ix_image_derivative_derivative ON IMAGE_DERIVATIVE (DERIVATIVE);
+
+-- images still waiting for their derivatives. In the database instead of memory, so a restart doesn't lose them
+CREATE TABLE THUMBNAIL_JOB
+(
+    SOURCE      VARCHAR(64)              NOT NULL PRIMARY KEY, --sha-256 of the original in the blob store
+    ENQUEUED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+    ATTEMPTS    INT                      NOT NULL DEFAULT 0
+);
+
+-- the newest approved posts for /feed, the highest SEQ is the newest. Timeline keeps the same ones in memory and trims this to its size
+CREATE TABLE TIMELINE
+(
+    SEQ     BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    POST_ID BIGINT NOT NULL UNIQUE,
+    CONSTRAINT fk_timeline_post FOREIGN KEY (POST_ID) REFERENCES POST (ID) ON DELETE CASCADE
+);
+
+-- accounts AccountDeletion is deleting, or deleted. STEP is the one it is in, so a restart carries on from there
+CREATE TABLE ACCOUNT_DELETION
+(
+    USERNAME     VARCHAR(50)              NOT NULL PRIMARY KEY,
+    STEP         VARCHAR(16)              NOT NULL,
+    ROWS_DELETED BIGINT                   NOT NULL DEFAULT 0,
+    REQUESTED_AT TIMESTAMP WITH TIME ZONE NOT NULL,
+    FINISHED_AT  TIMESTAMP WITH TIME ZONE DEFAULT NULL
 );
\ No newline at end of file
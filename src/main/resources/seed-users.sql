@@ -0,0 +1,11 @@
+-- the users there are until they can sign up. The passwords are BCrypt hashes made once, not at every startup,
+-- of abc123 (paul), qrs456 (hank-owns-no-cats), xyz789 (kat) and admin (legoaggelos). Users that already exist are left as they are
+INSERT INTO USERS(USERNAME, PASSWORD, ENABLED) SELECT 'kat', '$2a$10$27in9AwwPt3kKMxFHZkamOrjSNVPBYFjVfmvzePMSMU70W4xOk3Ma', TRUE WHERE NOT EXISTS (SELECT 1 FROM USERS WHERE USERNAME = 'kat');
+INSERT INTO USERS(USERNAME, PASSWORD, ENABLED) SELECT 'paul', '$2a$10$V/XjGCcfwbh.V0P9pTxtIuX35rco5/j/v0Mfg/d988wY7BFMTM32m', TRUE WHERE NOT EXISTS (SELECT 1 FROM USERS WHERE USERNAME = 'paul');
+INSERT INTO USERS(USERNAME, PASSWORD, ENABLED) SELECT 'hank-owns-no-cats', '$2a$10$mIIoAR0lgN0DN5aYn9uixuJXuWdH7m72fwEQ2II10ZAcxkeLxyPuO', TRUE WHERE NOT EXISTS (SELECT 1 FROM USERS WHERE USERNAME = 'hank-owns-no-cats');
+INSERT INTO USERS(USERNAME, PASSWORD, ENABLED) SELECT 'legoaggelos', '$2a$10$v4v37O3LwlDZ/zN0UpBCV.NckrhdwG5XcRxBTmoCnVE//nApYfL3e', TRUE WHERE NOT EXISTS (SELECT 1 FROM USERS WHERE USERNAME = 'legoaggelos');
+INSERT INTO AUTHORITIES(USERNAME, AUTHORITY) SELECT 'kat', 'ROLE_USER' WHERE NOT EXISTS (SELECT 1 FROM AUTHORITIES WHERE USERNAME = 'kat' AND AUTHORITY = 'ROLE_USER');
+INSERT INTO AUTHORITIES(USERNAME, AUTHORITY) SELECT 'paul', 'ROLE_USER' WHERE NOT EXISTS (SELECT 1 FROM AUTHORITIES WHERE USERNAME = 'paul' AND AUTHORITY = 'ROLE_USER');
+INSERT INTO AUTHORITIES(USERNAME, AUTHORITY) SELECT 'hank-owns-no-cats', 'ROLE_USER' WHERE NOT EXISTS (SELECT 1 FROM AUTHORITIES WHERE USERNAME = 'hank-owns-no-cats' AND AUTHORITY = 'ROLE_USER');
+INSERT INTO AUTHORITIES(USERNAME, AUTHORITY) SELECT 'legoaggelos', 'ROLE_ADMIN' WHERE NOT EXISTS (SELECT 1 FROM AUTHORITIES WHERE USERNAME = 'legoaggelos' AND AUTHORITY = 'ROLE_ADMIN');
+INSERT INTO AUTHORITIES(USERNAME, AUTHORITY) SELECT 'legoaggelos', 'ROLE_USER' WHERE NOT EXISTS (SELECT 1 FROM AUTHORITIES WHERE USERNAME = 'legoaggelos' AND AUTHORITY = 'ROLE_USER');
\ No newline at end of file
@@ -0,0 +1,239 @@
+package com.legoaggelos.catplace;
+
+import com.jayway.jsonpath.DocumentContext;
+import com.jayway.jsonpath.JsonPath;
+import com.legoaggelos.catplace.security.jwt.AuthController;
+import com.legoaggelos.catplace.security.jwt.JwtUtil;
+import com.legoaggelos.catplace.security.jwt.PasswordVerifier;
+import com.legoaggelos.catplace.security.users.CatPlacePrincipal;
+import com.legoaggelos.catplace.security.users.CatPlaceUserDetailsService;
+import com.legoaggelos.catplace.security.util.AdminCertifier;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.core.userdetails.UserDetailsService;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+import javax.sql.DataSource;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureTestDatabase
+class AuthenticationTests {
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Autowired
+    JwtUtil jwtUtil;
+
+    @Autowired
+    CatPlaceUserDetailsService userDetailsService;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    JdbcClient jdbcClient;
+
+    @Autowired
+    DataSource dataSource;
+
+    @Autowired
+    PasswordEncoder passwordEncoder;
+
+    @Test
+    void shouldAuthenticateWithJwt() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(jwtUtil.generateToken("paul"));
+        ResponseEntity<Void> response = restTemplate.exchange("/comments/987654", HttpMethod.DELETE, new HttpEntity<>(headers), Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND); //got past authentication
+
+        headers.setBearerAuth("not.a.token");
+        response = restTemplate.exchange("/comments/987654", HttpMethod.DELETE, new HttpEntity<>(headers), Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    @Test
+    void shouldLoadUserWithAuthoritiesOnceUntilEvicted() {
+        userDetailsService.evict("legoaggelos"); //other tests may have loaded it
+        double misses = requests("miss");
+        double hits = requests("hit");
+
+        UserDetails admin = userDetailsService.loadUserByUsername("legoaggelos");
+        assertThat(admin.getAuthorities()).extracting(Object::toString).containsExactlyInAnyOrder("ROLE_ADMIN", "ROLE_USER");
+        assertThat(userDetailsService.loadUserByUsername("legoaggelos").getPassword()).isEqualTo(admin.getPassword());
+        assertThat(requests("miss")).isEqualTo(misses + 1);
+        assertThat(requests("hit")).isEqualTo(hits + 1);
+
+        userDetailsService.evict("legoaggelos");
+        userDetailsService.loadUserByUsername("legoaggelos");
+        assertThat(requests("miss")).isEqualTo(misses + 2);
+    }
+
+    @Test
+    void shouldWorkOutRolesWhenLoadingUsers() {
+        UserDetails admin = userDetailsService.loadUserByUsername("legoaggelos");
+        UserDetails paul = userDetailsService.loadUserByUsername("paul");
+        assertThat(admin).isInstanceOfSatisfying(CatPlacePrincipal.class, principal -> assertThat(principal.isAdmin()).isTrue());
+        assertThat(paul).isInstanceOfSatisfying(CatPlacePrincipal.class, principal -> {
+            assertThat(principal.isAdmin()).isFalse();
+            assertThat(principal.hasRole(CatPlacePrincipal.USER)).isTrue();
+        });
+        assertThat(AdminCertifier.isAdmin(new UsernamePasswordAuthenticationToken(admin, null, admin.getAuthorities()))).isTrue();
+        assertThat(AdminCertifier.isAdmin(new UsernamePasswordAuthenticationToken(paul, null, paul.getAuthorities()))).isFalse();
+    }
+
+    @Test
+    void shouldKnowAdminsByTheirToken() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(jwtUtil.generateToken("legoaggelos"));
+        ResponseEntity<Void> response = restTemplate.exchange("/catposts/pending", HttpMethod.GET, new HttpEntity<>(headers), Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND); //nothing is pending, but admins may look
+
+        headers.setBearerAuth(jwtUtil.generateToken("paul"));
+        response = restTemplate.exchange("/catposts/pending", HttpMethod.GET, new HttpEntity<>(headers), Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    }
+
+    @Test
+    void shouldSkipSeedUsersThatAlreadyExist() {
+        long users = jdbcClient.sql("select count(*) from USERS").query(Long.class).single();
+        long authorities = jdbcClient.sql("select count(*) from AUTHORITIES").query(Long.class).single();
+        new ResourceDatabasePopulator(new ClassPathResource("seed-users.sql")).execute(dataSource);
+        assertThat(jdbcClient.sql("select count(*) from USERS").query(Long.class).single()).isEqualTo(users);
+        assertThat(jdbcClient.sql("select count(*) from AUTHORITIES").query(Long.class).single()).isEqualTo(authorities);
+        assertThat(passwordEncoder.matches("admin", userDetailsService.loadUserByUsername("legoaggelos").getPassword())).isTrue();
+    }
+
+    @Test
+    void shouldShowStartupStepsOnlyToAdmins() {
+        ResponseEntity<Void> response = restTemplate.withBasicAuth("paul", "abc123").getForEntity("/actuator/startup", Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    }
+
+    @Test
+    void shouldNotFindUnknownUsers() {
+        assertThatThrownBy(() -> userDetailsService.loadUserByUsername("nobody-by-that-name")).isInstanceOf(UsernameNotFoundException.class);
+    }
+
+    @Test
+    void shouldIssueTokensForTheRightPassword() {
+        ResponseEntity<String> response = restTemplate.postForEntity("/auth/token", new AuthController.TokenRequest("paul", "abc123"), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext tokens = JsonPath.parse(response.getBody());
+        assertThat((Integer) tokens.read("$.expiresIn")).isEqualTo(3600);
+        assertThat(deleteAs(tokens.read("$.accessToken"))).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(deleteAs(tokens.read("$.refreshToken"))).isEqualTo(HttpStatus.UNAUTHORIZED); //only good for /auth/refresh
+
+        response = restTemplate.postForEntity("/auth/token", new AuthController.TokenRequest("paul", "xyz789"), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        response = restTemplate.postForEntity("/auth/token", new AuthController.TokenRequest("nobody-by-that-name", "abc123"), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    @Test
+    void shouldRefreshOnlyWithARefreshToken() {
+        ResponseEntity<String> response = restTemplate.postForEntity("/auth/refresh", new AuthController.RefreshRequest(jwtUtil.generateRefreshToken("kat")), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(deleteAs(JsonPath.parse(response.getBody()).read("$.accessToken"))).isEqualTo(HttpStatus.NOT_FOUND);
+
+        response = restTemplate.postForEntity("/auth/refresh", new AuthController.RefreshRequest(jwtUtil.generateToken("kat")), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+        response = restTemplate.postForEntity("/auth/refresh", new AuthController.RefreshRequest(jwtUtil.generateRefreshToken("nobody-by-that-name")), String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+    }
+
+    @Test
+    void shouldCheckAPasswordEvenForUnknownUsers() throws Exception {
+        AtomicInteger checks = new AtomicInteger();
+        PasswordEncoder countingEncoder = new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                return rawPassword.toString();
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                checks.incrementAndGet();
+                return encodedPassword.contentEquals(rawPassword);
+            }
+        };
+        UserDetailsService noUsers = username -> {
+            throw new UsernameNotFoundException(username);
+        };
+        PasswordVerifier verifier = new PasswordVerifier(noUsers, countingEncoder, 1, 1);
+
+        assertThat(verifier.verify("nobody-by-that-name", "userNotFoundPassword")).isFalse(); //not even with the dummy's password
+        assertThat(checks).hasValue(1); //as long as for a user that exists
+    }
+
+    @Test
+    void shouldTurnAwayPasswordChecksBeyondTheQueue() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        PasswordEncoder slowEncoder = new PasswordEncoder() {
+            @Override
+            public String encode(CharSequence rawPassword) {
+                return rawPassword.toString();
+            }
+
+            @Override
+            public boolean matches(CharSequence rawPassword, String encodedPassword) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return encodedPassword.contentEquals(rawPassword);
+            }
+        };
+        UserDetailsService users = username -> User.withUsername(username).password("secret").roles("USER").build();
+        PasswordVerifier verifier = new PasswordVerifier(users, slowEncoder, 1, 1);
+
+        ExecutorService clients = Executors.newFixedThreadPool(2);
+        try {
+            Future<Boolean> running = clients.submit(() -> verifier.verify("paul", "secret"));
+            Future<Boolean> queued = clients.submit(() -> verifier.verify("kat", "wrong"));
+            Thread.sleep(200); //one on the thread, one in the queue
+            assertThatThrownBy(() -> verifier.verify("hank", "secret")).isInstanceOf(RejectedExecutionException.class);
+            release.countDown();
+            assertThat(running.get()).isTrue();
+            assertThat(queued.get()).isFalse();
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    private HttpStatusCode deleteAs(String token) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setBearerAuth(token);
+        return restTemplate.exchange("/comments/987654", HttpMethod.DELETE, new HttpEntity<>(headers), Void.class).getStatusCode();
+    }
+
+    private double requests(String result) {
+        return meterRegistry.get("catplace.users.cache.requests").tag("result", result).counter().count();
+    }
+}
@@ -0,0 +1,122 @@
+package com.legoaggelos.catplace;
+
+import com.legoaggelos.catplace.blobs.BlobCollector;
+import com.legoaggelos.catplace.blobs.BlobDownloads;
+import com.legoaggelos.catplace.blobs.BlobStore;
+import com.legoaggelos.catplace.blobs.FileSystemBlobStore;
+import com.legoaggelos.catplace.blobs.ImageDerivatives;
+import com.legoaggelos.catplace.blobs.StoredBlob;
+import com.legoaggelos.catplace.cats.CatPlaceRepository;
+import com.legoaggelos.catplace.cats.posts.PostRepository;
+import com.legoaggelos.catplace.security.users.CatPlaceUserRepository;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.annotation.DirtiesContext;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@SpringBootTest(properties = {"catplace.blobs.directory=build/collected-blobs", "catplace.blobs.grace-period=PT0S"}) //own directory, so collecting can't touch blobs other test contexts use
+@AutoConfigureTestDatabase
+class BlobStoreTests {
+    @Autowired
+    BlobStore blobStore;
+
+    @Autowired
+    BlobCollector blobCollector;
+
+    @Autowired
+    PostRepository postRepository;
+
+    @Autowired
+    CatPlaceRepository catRepository;
+
+    @Autowired
+    CatPlaceUserRepository userRepository;
+
+    @Autowired
+    ImageDerivatives derivatives;
+
+    @Test
+    void shouldDeduplicateIdenticalContent() throws IOException {
+        byte[] content = "the same cat twice".getBytes();
+        String first = blobStore.store(new ByteArrayInputStream(content));
+        String second = blobStore.store(new ByteArrayInputStream(content));
+        assertThat(first).isEqualTo(second).hasSize(64);
+
+        try (InputStream in = blobStore.open(first)) {
+            assertThat(in.readAllBytes()).isEqualTo(content);
+        }
+        assertThat(blobStore.size(first)).isEqualTo(content.length);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldCollectOnlyUnreferencedBlobs() throws IOException {
+        String seeded = blobStore.store(Files.newInputStream(Paths.get("img.png"))); //the image every post in data.sql uses
+        assertThat(blobCollector.referenceCount(seeded)).isEqualTo(4);
+
+        String orphan = blobStore.store(new ByteArrayInputStream("nobody posted this".getBytes()));
+        assertThat(blobCollector.referenceCount(orphan)).isZero();
+
+        blobCollector.collectGarbage();
+
+        assertThat(blobStore.exists(orphan)).isFalse();
+        assertThat(blobStore.exists(seeded)).isTrue();
+    }
+
+    @Test
+    @Timeout(10) //it used to spin forever
+    void shouldStopServingABlobShorterThanItsSize() throws IOException {
+        String hash = blobStore.store(new ByteArrayInputStream("cut short".getBytes()));
+        //as if the file was truncated after its size was read
+        BlobStore shrinkingStore = new FileSystemBlobStore(Paths.get("build/collected-blobs")) {
+            @Override
+            public long size(String hash) throws IOException {
+                return super.size(hash) + 10;
+            }
+        };
+        BlobDownloads downloads = new BlobDownloads(shrinkingStore, derivatives);
+
+        assertThatThrownBy(() -> downloads.serve(new StoredBlob(hash, shrinkingStore), new MockHttpServletRequest("GET", "/"), new MockHttpServletResponse()))
+                .isInstanceOf(EOFException.class);
+    }
+
+    @Test
+    void shouldKeepBlobsUploadedAgainDuringACollection() throws IOException {
+        byte[] content = "posted again while collecting".getBytes();
+        String hash = blobStore.store(new ByteArrayInputStream(content));
+        Files.setLastModifiedTime(blobStore.findFile(hash).orElseThrow(), FileTime.from(Instant.now().minus(Duration.ofHours(2))));
+
+        //a second upload of the same image lands after the candidates are listed, before its row is committed
+        BlobStore uploadingStore = new FileSystemBlobStore(Paths.get("build/collected-blobs")) {
+            @Override
+            public List<String> findStoredBefore(Instant cutoff) throws IOException {
+                List<String> candidates = super.findStoredBefore(cutoff);
+                store(new ByteArrayInputStream(content));
+                return candidates;
+            }
+        };
+        BlobCollector collector = new BlobCollector(uploadingStore, postRepository, catRepository, userRepository, derivatives, Duration.ofHours(1));
+
+        collector.collectGarbage();
+
+        assertThat(blobStore.exists(hash)).isTrue();
+    }
+}
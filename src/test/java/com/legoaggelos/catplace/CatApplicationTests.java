@@ -12,6 +12,7 @@ import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.Base64;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 import com.legoaggelos.catplace.cats.Cat;
 import org.junit.jupiter.api.BeforeAll;
@@ -20,8 +21,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.*;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
 
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
@@ -37,6 +42,9 @@ import javax.sql.rowset.serial.SerialBlob;
 class CatApplicationTests {
 	@Autowired
     TestRestTemplate restTemplate;
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
     private static final Path testFile = Paths.get("4.jpg");
     
 
@@ -65,9 +73,9 @@ class CatApplicationTests {
         String bio = documentContext.read("$.bio");
         assertThat(bio).isEqualTo("random");
 
-        var x = documentContext.read("$.profilePicture");
+        String x = documentContext.read("$.profilePictureUrl");
         assertThat(x).isNotNull();
-        assertThat((Base64.getDecoder().decode((String) x))).isEqualTo(Files.readAllBytes(testFile));
+        assertThat(download(x, "paul", "abc123")).isEqualTo(Files.readAllBytes(testFile));
     }
 
     @Test
@@ -87,7 +95,7 @@ class CatApplicationTests {
         String dateOfBirth = documentContext.read("$.dateOfBirth");
         assertThat(dateOfBirth).isEqualTo(null);
 
-        String pfp = documentContext.read("$.profilePicture");
+        String pfp = documentContext.read("$.profilePictureUrl");
         assertThat(pfp).isEqualTo(null);
         /*assertThat(x).isNotNull(); excluded because it needs to be created via code for the default to work, not the default data
         assertThat((Base64.getDecoder().decode((String) x))).isEqualTo(Files.readAllBytes(testFile));*/
@@ -121,7 +129,7 @@ class CatApplicationTests {
         JSONArray dateOfBirth = documentContext.read("$..dateOfBirth");
         assertThat(dateOfBirth).containsExactlyInAnyOrder(null, null, null);
 
-        JSONArray x = documentContext.read("$..profilePicture");
+        JSONArray x = documentContext.read("$..profilePictureUrl");
         assertThat(x).isNotNull();
         //assertThat(x).containsExactlyInAnyOrder(Files.readAllBytes(testFile)); excluded because it needs to be created via code for the default to work, not the default data
     }
@@ -234,7 +242,7 @@ class CatApplicationTests {
         OffsetDateTime dateOfBirth = OffsetDateTime.parse(documentContext.read("$.dateOfBirth"));
         String name = documentContext.read("$.name");
         String bio = documentContext.read("$.bio");
-        byte[] pfp = Base64.getDecoder().decode((String) documentContext.read("$.profilePicture"));
+        byte[] pfp = download(documentContext.read("$.profilePictureUrl"), "paul", "abc123");
 
         assertThat(pfp).isEqualTo(testPfp.getBinaryStream().readAllBytes());
         assertThat(bio).isEqualTo("random");
@@ -243,6 +251,57 @@ class CatApplicationTests {
         assertThat(name).isEqualTo("pekos");
     }
 
+    @Test
+    @DirtiesContext
+    void shouldCreateANewCatFromMultipartUpload() throws IOException {
+        MultiValueMap<String, Object> parts = new LinkedMultiValueMap<>();
+        parts.add("cat", new HttpEntity<>(new Cat(null, "pekos", sampleDate, null, null, "random", true), jsonHeaders()));
+        parts.add("profilePicture", new FileSystemResource(Paths.get("img.png")));
+        ResponseEntity<Void> createResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .postForEntity("/cats", parts, Void.class);
+        assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        ResponseEntity<String> getResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .getForEntity(createResponse.getHeaders().getLocation(), String.class);
+        assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext documentContext = JsonPath.parse(getResponse.getBody());
+
+        String name = documentContext.read("$.name");
+        assertThat(name).isEqualTo("pekos");
+        String owner = documentContext.read("$.owner");
+        assertThat(owner).isEqualTo("paul");
+        byte[] pfp = download(documentContext.read("$.profilePictureUrl"), "paul", "abc123");
+        assertThat(pfp).isEqualTo(Files.readAllBytes(Paths.get("img.png")));
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldReplaceCatPictureWithRawImage() throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        HttpEntity<byte[]> picture = new HttpEntity<>(Files.readAllBytes(Paths.get("img.png")), headers);
+
+        ResponseEntity<Void> response = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/cats/5/picture", HttpMethod.PUT, picture, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND); //not kat's cat
+
+        response = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .exchange("/cats/5/picture", HttpMethod.PUT, picture, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+        ResponseEntity<String> getResponse = restTemplate
+                .getForEntity("/cats/5", String.class);
+        DocumentContext documentContext = JsonPath.parse(getResponse.getBody());
+        String name = documentContext.read("$.name");
+        assertThat(name).isEqualTo("psilos"); //everything else stays as it was
+        byte[] pfp = download(documentContext.read("$.profilePictureUrl"), "paul", "abc123");
+        assertThat(pfp).isEqualTo(Files.readAllBytes(Paths.get("img.png")));
+    }
+
     @Test
     @DirtiesContext
     void shouldCreateANewCatAndHaveDefaultPfp() throws IOException {
@@ -263,7 +322,7 @@ class CatApplicationTests {
         OffsetDateTime dateOfBirth = OffsetDateTime.parse(documentContext.read("$.dateOfBirth"));
         String name = documentContext.read("$.name");
         String bio = documentContext.read("$.bio");
-        byte[] pfp = Base64.getDecoder().decode((String) documentContext.read("$.profilePicture"));
+        byte[] pfp = download(documentContext.read("$.profilePictureUrl"), "paul", "abc123");
 
         assertThat(pfp).isEqualTo(Files.readAllBytes(testFile));
         assertThat(bio).isEqualTo("random");
@@ -375,7 +434,7 @@ class CatApplicationTests {
         String bio = documentContext.read("$.bio");
         assertThat(bio).isEqualTo("average v2");
 
-        SerialBlob pfp = new SerialBlob(Base64.getDecoder().decode((String) documentContext.read("$.profilePicture")));
+        SerialBlob pfp = new SerialBlob(download(documentContext.read("$.profilePictureUrl"), "paul", "abc123"));
 
         assertThat(pfp.getBinaryStream().readAllBytes()).isEqualTo(samplePfp.getBinaryStream().readAllBytes());
 
@@ -387,6 +446,29 @@ class CatApplicationTests {
         }
     }
 
+    @Test
+    void shouldListCatSummariesWithoutBios() {
+        ResponseEntity<String> response = restTemplate.getForEntity("/cats/fromOwner/paul?view=summary", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        JSONArray names = documentContext.read("$[*].name");
+        assertThat(names).containsExactly("kontos", "mesos", "psilos");
+        assertThat(response.getBody()).doesNotContain("\"bio\"", "\"profilePicture\"");
+        assertThat((Object) documentContext.read("$[0].profilePictureThumbnailUrl")).isNull(); //seeded cats have no picture
+    }
+
+    @Test
+    void shouldListCatSummariesWithoutCountingThem() {
+        jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+        try {
+            restTemplate.getForEntity("/cats/fromOwner/paul?view=summary", String.class);
+            List<String> statements = jdbcTemplate.queryForList("select SQL_STATEMENT from INFORMATION_SCHEMA.QUERY_STATISTICS where upper(SQL_STATEMENT) like '%FROM%CAT%OWNER%'", String.class);
+            assertThat(statements).isNotEmpty().noneMatch(sql -> sql.toUpperCase().contains("COUNT("));
+        } finally {
+            jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+        }
+    }
+
     @Test
     @DirtiesContext
     void shouldUpdateAnExistingCatWholeyWhenAdmin() throws IOException, SQLException {
@@ -439,7 +521,7 @@ class CatApplicationTests {
         String bio = documentContext.read("$.bio");
         assertThat(bio).isEqualTo("average v2");
 
-        SerialBlob pfp = new SerialBlob(Base64.getDecoder().decode((String) documentContext.read("$.profilePicture")));
+        SerialBlob pfp = new SerialBlob(download(documentContext.read("$.profilePictureUrl"), "paul", "abc123"));
 
         assertThat(pfp.getBinaryStream().readAllBytes()).isEqualTo(samplePfp.getBinaryStream().readAllBytes());
 
@@ -480,7 +562,7 @@ class CatApplicationTests {
         String bio = documentContext.read("$.bio");
         assertThat(bio).isEqualTo("average v2");
 
-        SerialBlob pfp = new SerialBlob(Base64.getDecoder().decode((String) documentContext.read("$.profilePicture")));
+        SerialBlob pfp = new SerialBlob(download(documentContext.read("$.profilePictureUrl"), "paul", "abc123"));
 
         assertThat(pfp.getBinaryStream().readAllBytes()).isEqualTo(samplePfp.getBinaryStream().readAllBytes());
 
@@ -520,7 +602,7 @@ class CatApplicationTests {
         String bio = documentContext.read("$.bio");
         assertThat(bio).isEqualTo("average v2");
 
-        SerialBlob pfp = new SerialBlob(Base64.getDecoder().decode((String) documentContext.read("$.profilePicture")));
+        SerialBlob pfp = new SerialBlob(download(documentContext.read("$.profilePictureUrl"), "paul", "abc123"));
 
         assertThat(pfp.getBinaryStream().readAllBytes()).isEqualTo(samplePfp.getBinaryStream().readAllBytes());
 
@@ -560,7 +642,7 @@ class CatApplicationTests {
         String bio = documentContext.read("$.bio");
         assertThat(bio).isEqualTo("average v2");
 
-        SerialBlob pfp = new SerialBlob(Base64.getDecoder().decode((String) documentContext.read("$.profilePicture")));
+        SerialBlob pfp = new SerialBlob(download(documentContext.read("$.profilePictureUrl"), "paul", "abc123"));
 
         assertThat(pfp.getBinaryStream().readAllBytes()).isEqualTo(samplePfp.getBinaryStream().readAllBytes());
 
@@ -729,7 +811,7 @@ class CatApplicationTests {
         JSONArray dateOfBirth = documentContext.read("$..dateOfBirth");
         assertThat(dateOfBirth).containsExactlyInAnyOrder(null, null, null);
 
-        JSONArray x = documentContext.read("$..profilePicture");
+        JSONArray x = documentContext.read("$..profilePictureUrl");
         assertThat(x).isNotNull();
         //assertThat(x).containsExactlyInAnyOrder(Files.readAllBytes(testFile)); excluded because it needs to be created via code for the default to work, not the default data
     }
@@ -754,7 +836,7 @@ class CatApplicationTests {
         JSONArray dateOfBirth = documentContext.read("$..dateOfBirth");
         assertThat(dateOfBirth).containsExactlyInAnyOrder(null, null, null);
 
-        JSONArray x = documentContext.read("$..profilePicture");
+        JSONArray x = documentContext.read("$..profilePictureUrl");
         assertThat(x).isNotNull();
         //assertThat(x).containsExactlyInAnyOrder(Files.readAllBytes(testFile)); excluded because it needs to be created via code for the default to work, not the default data
     }
@@ -772,4 +854,18 @@ class CatApplicationTests {
         assertThat(get.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(get.getBody()).isNotEmpty();
     }
+
+    private byte[] download(String url, String username, String password) {
+        ResponseEntity<byte[]> response = restTemplate
+                .withBasicAuth(username, password)
+                .getForEntity(url, byte[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        return response.getBody();
+    }
+
+    private static HttpHeaders jsonHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return headers;
+    }
 }
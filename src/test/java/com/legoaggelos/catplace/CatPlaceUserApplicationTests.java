@@ -9,11 +9,16 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
 import org.springframework.test.context.jdbc.Sql;
 
 import javax.sql.rowset.serial.SerialBlob;
@@ -25,7 +30,6 @@ import java.sql.SQLException;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -64,7 +68,7 @@ public class CatPlaceUserApplicationTests {
         String displayName = documentContext.read("$.displayName");
         assertThat(displayName).isEqualTo("examplename");
 
-        byte[] profilePicture = Base64.getDecoder().decode((String) documentContext.read("$.profilePicture"));
+        byte[] profilePicture = download(documentContext.read("$.profilePictureUrl"), "kat", "xyz789");
         assertThat(profilePicture).isEqualTo(testPfp.getBinaryStream().readAllBytes());
 
         String bio = documentContext.read("$.bio");
@@ -78,6 +82,53 @@ public class CatPlaceUserApplicationTests {
 
         
     }
+    @Test
+    @DirtiesContext
+    void shouldCreateNewUserFromMultipartUpload() throws IOException {
+        MultiValueMap<String, Object> parts = new LinkedMultiValueMap<>();
+        parts.add("user", new HttpEntity<>(new CatPlaceUser("examplename", "exampleusername", null, "example bio", "examplemail@gmail.com", false), jsonHeaders()));
+        parts.add("profilePicture", new FileSystemResource(Paths.get("img.png")));
+        ResponseEntity<Void> createResponse = restTemplate
+                .postForEntity("/users", parts, Void.class);
+        assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        ResponseEntity<String> response = restTemplate
+                .getForEntity("/users/exampleusername", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+
+        String bio = documentContext.read("$.bio");
+        assertThat(bio).isEqualTo("example bio");
+        byte[] profilePicture = download(documentContext.read("$.profilePictureUrl"), "kat", "xyz789");
+        assertThat(profilePicture).isEqualTo(Files.readAllBytes(Paths.get("img.png")));
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldReplaceOwnPictureWithRawImage() throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        HttpEntity<byte[]> picture = new HttpEntity<>(Files.readAllBytes(Paths.get("img.png")), headers);
+
+        ResponseEntity<Void> response = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/users/paul/picture", HttpMethod.PUT, picture, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+        response = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .exchange("/users/paul/picture", HttpMethod.PUT, picture, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+        ResponseEntity<String> getResponse = restTemplate
+                .getForEntity("/users/paul", String.class);
+        DocumentContext documentContext = JsonPath.parse(getResponse.getBody());
+        String bio = documentContext.read("$.bio");
+        assertThat(bio).isEqualTo("Owner of cats");
+        byte[] profilePicture = download(documentContext.read("$.profilePictureUrl"), "paul", "abc123");
+        assertThat(profilePicture).isEqualTo(Files.readAllBytes(Paths.get("img.png")));
+    }
+
     @Test
     public void canFindUser() {
         ResponseEntity<String> response = restTemplate
@@ -143,7 +194,7 @@ public class CatPlaceUserApplicationTests {
         String displayName = documentContext.read("$.displayName");
         assertThat(displayName).isEqualTo("examplename");
 
-        byte[] profilePicture = Base64.getDecoder().decode((String) documentContext.read("$.profilePicture"));
+        byte[] profilePicture = download(documentContext.read("$.profilePictureUrl"), "kat", "xyz789");
         assertThat(profilePicture).isEqualTo(Files.readAllBytes(testFile));
 
         String bio = documentContext.read("$.bio");
@@ -237,11 +288,13 @@ public class CatPlaceUserApplicationTests {
     @Test
     @DirtiesContext
     @Sql("/delete-not-liked-cats-posts-comments.sql") // to not have liked connections mess with delete permissions
-    void shouldDeleteUser() {
+    void shouldDeleteUser() throws InterruptedException {
         ResponseEntity<Void> response = restTemplate
                 .withBasicAuth("kat", "xyz789")
                 .exchange("/users/kat", HttpMethod.DELETE, null, Void.class);
-        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        assertThat(response.getHeaders().getLocation().getPath()).isEqualTo("/users/kat/deletion");
+        awaitDeletion("kat", "kat", "xyz789");
 
         ResponseEntity<Void> getResponse = restTemplate
                 .withBasicAuth("legoaggelos", "admin")
@@ -268,11 +321,12 @@ public class CatPlaceUserApplicationTests {
     @Test
     @DirtiesContext
     @Sql("/delete-not-liked-cats-posts-comments.sql") // to not have liked connections mess with delete permissions
-    void shouldDeleteOtherUserWhenAdmin() {
+    void shouldDeleteOtherUserWhenAdmin() throws InterruptedException {
         ResponseEntity<Void> response = restTemplate
                 .withBasicAuth("legoaggelos", "admin")
                 .exchange("/users/kat", HttpMethod.DELETE, null, Void.class);
-        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        awaitDeletion("kat", "legoaggelos", "admin");
 
         ResponseEntity<Void> getResponse = restTemplate
                 .withBasicAuth("legoaggelos", "admin")
@@ -280,6 +334,43 @@ public class CatPlaceUserApplicationTests {
         assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
 
+    @Test
+    @DirtiesContext
+    void shouldDeleteEverythingOfTheAccount() throws InterruptedException {
+        ResponseEntity<Void> response = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/users/kat", HttpMethod.DELETE, null, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED);
+        DocumentContext status = awaitDeletion("kat", "kat", "xyz789");
+        assertThat((String) status.read("$.step")).isEqualTo("DONE");
+        assertThat((Integer) status.read("$.rowsDeleted")).isGreaterThan(0);
+
+        assertThat(restTemplate.getForEntity("/users/kat", Void.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(restTemplate.getForEntity("/cats/4", Void.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(restTemplate.getForEntity("/catposts/4", Void.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(restTemplate.getForEntity("/comments/2", Void.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND); //kat's
+        assertThat(restTemplate.getForEntity("/comments/4", Void.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND); //on kat's post
+
+        ResponseEntity<String> paulsPost = restTemplate.getForEntity("/catposts/5", String.class);
+        assertThat(paulsPost.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat((Integer) JsonPath.parse(paulsPost.getBody()).read("$.commentCount")).isEqualTo(0);
+        assertThat(restTemplate.getForEntity("/cats/5", Void.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    @DirtiesContext
+    @Sql("/delete-not-liked-cats-posts-comments.sql")
+    void shouldNotShowDeletionToOtherUsers() throws InterruptedException {
+        restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/users/kat", HttpMethod.DELETE, null, Void.class);
+        awaitDeletion("kat", "kat", "xyz789");
+
+        assertThat(restTemplate.withBasicAuth("paul", "abc123").getForEntity("/users/kat/deletion", String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(restTemplate.getForEntity("/users/kat/deletion", String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(restTemplate.withBasicAuth("legoaggelos", "admin").getForEntity("/users/kat/deletion", String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
     @Test
     void shouldNotAllowAccessToUsersWhenNotAuthorized() {
         ResponseEntity<Void> getResponse = restTemplate
@@ -422,4 +513,34 @@ public class CatPlaceUserApplicationTests {
         assertThat(get.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(get.getBody()).isNotEmpty();
     }
+
+    private byte[] download(String url, String username, String password) {
+        ResponseEntity<byte[]> response = restTemplate
+                .withBasicAuth(username, password)
+                .getForEntity(url, byte[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        return response.getBody();
+    }
+
+    //the deletion runs in the background
+    private DocumentContext awaitDeletion(String username, String asUser, String password) throws InterruptedException {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            ResponseEntity<String> response = restTemplate
+                    .withBasicAuth(asUser, password)
+                    .getForEntity("/users/" + username + "/deletion", String.class);
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+            DocumentContext status = JsonPath.parse(response.getBody());
+            if (status.read("$.finishedAt") != null) {
+                return status;
+            }
+            Thread.sleep(100);
+        }
+        throw new AssertionError("Deleting " + username + " didn't finish");
+    }
+
+    private static HttpHeaders jsonHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return headers;
+    }
 }
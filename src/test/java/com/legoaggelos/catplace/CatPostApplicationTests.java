@@ -2,6 +2,7 @@ package com.legoaggelos.catplace;
 
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
+import com.legoaggelos.catplace.blobs.ThumbnailPipeline;
 import com.legoaggelos.catplace.cats.posts.Post;
 import net.minidev.json.JSONArray;
 import org.junit.jupiter.api.Assertions;
@@ -10,8 +11,12 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.core.io.FileSystemResource;
 import org.springframework.http.*;
+import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
 import org.springframework.test.context.jdbc.Sql;
 
 import javax.sql.rowset.serial.SerialBlob;
@@ -24,14 +29,19 @@ import java.sql.SQLException;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
-import java.util.Base64;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
+import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
 @SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
 @AutoConfigureTestDatabase
 public class CatPostApplicationTests {
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
     @Autowired
     TestRestTemplate restTemplate;
 
@@ -91,6 +101,53 @@ public class CatPostApplicationTests {
         assertThat(page.toJSONString()).doesNotContain("Cute cat!!");
     }
 
+    @Test
+    void shouldListPostSummariesInTheSameOrderAsPosts() {
+        ResponseEntity<String> response = restTemplate.getForEntity("/catposts/fromOwnerId/paul?view=summary", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext summaries = JsonPath.parse(response.getBody());
+        JSONArray ids = summaries.read("$[*].id");
+        assertThat(ids.size()).isEqualTo(3);
+        assertThat(ids).isEqualTo(JsonPath.parse(restTemplate.getForObject("/catposts/fromOwnerId/paul", String.class)).read("$[*].id"));
+
+        String thumbnailUrl = summaries.read("$[0].thumbnailUrl");
+        assertThat(thumbnailUrl).isEqualTo("/catposts/" + summaries.read("$[0].id") + "/image?size=" + ThumbnailPipeline.PREVIEW_SIZE);
+        assertThat(response.getBody()).doesNotContain("\"imageUrl\"", "\"image\"", "\"desc\"", "Cute cat!!");
+    }
+
+    @Test
+    void shouldNotReadDescriptionsForPostSummaries() {
+        jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+        try {
+            restTemplate.getForEntity("/catposts/fromOwnerId/paul?view=summary", String.class);
+            restTemplate.getForEntity("/catposts/fromOwnerId/paul?view=summary&cursor=", String.class);
+            List<String> statements = jdbcTemplate.queryForList("select SQL_STATEMENT from INFORMATION_SCHEMA.QUERY_STATISTICS where upper(SQL_STATEMENT) like '%FROM%POST%USER_OWNER%'", String.class);
+            assertThat(statements).hasSizeGreaterThanOrEqualTo(2);
+            //what is selected, the ORDER BY has its own desc
+            assertThat(statements).map(sql -> sql.toUpperCase().substring(0, sql.toUpperCase().indexOf(" FROM "))).noneMatch(columns -> columns.contains("DESC") || columns.contains("*"));
+        } finally {
+            jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+        }
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldNotBeAbleToGetOtherUsersUnapprovedPostSummaries() throws SQLException, IOException {
+        shouldDisapprovePost();
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .getForEntity("/catposts/fromCatId/5?view=summary", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        JSONArray page = JsonPath.parse(response.getBody()).read("$[*]");
+        assertThat(page.size()).isEqualTo(1);
+
+        response = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .getForEntity("/catposts/fromOwnerId/paul?view=summary", String.class);
+        page = JsonPath.parse(response.getBody()).read("$[*]");
+        assertThat(page.size()).isEqualTo(3); //paul still sees his own
+    }
+
     @Test
     @DirtiesContext
     void shouldBeAbleToGetOtherCatsUnapprovedPostsWhenGettingListWhenAdmin() throws SQLException, IOException {
@@ -166,6 +223,29 @@ public class CatPostApplicationTests {
         assertThat(response.getBody()).isNullOrEmpty();
     }
 
+    @Test
+    @DirtiesContext
+    void unauthorizedShouldNotBeAbleToGetUnapprovedPost() throws SQLException, IOException {
+        shouldDisapprovePost();
+        ResponseEntity<String> response = restTemplate.getForEntity("/catposts/5", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+        response = restTemplate.getForEntity("/catposts/5/image", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    @DirtiesContext
+    void adminShouldBeAbleToGetOthersUnapprovedPost() throws SQLException, IOException {
+        shouldDisapprovePost();
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth("legoaggelos", "admin")
+                .getForEntity("/catposts/5", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        Boolean isApproved = JsonPath.parse(response.getBody()).read("$.isApproved");
+        assertThat(isApproved).isFalse();
+    }
+
     @Test
     @DirtiesContext
     void shouldBeAbleToGetOwnUnapprovedPost() throws SQLException, IOException {
@@ -180,7 +260,7 @@ public class CatPostApplicationTests {
         Number id = documentContext.read("$.id");
         assertThat(id).isEqualTo(5);
 
-        var image = Base64.getDecoder().decode((String) documentContext.read("$.image"));
+        var image = download(documentContext.read("$.imageUrl"), "paul", "abc123");
         assertThat(image).isEqualTo(Files.readAllBytes(testFile));
 
         Number catOwnerId = documentContext.read("$.catOwner");
@@ -211,7 +291,7 @@ public class CatPostApplicationTests {
         Number id = documentContext.read("$.id");
         assertThat(id).isEqualTo(5);
 
-        var image = Base64.getDecoder().decode((String) documentContext.read("$.image"));
+        var image = download(documentContext.read("$.imageUrl"), "paul", "abc123");
         assertThat(image).isEqualTo(Files.readAllBytes(testFile));
 
         Number catOwnerId = documentContext.read("$.catOwner");
@@ -237,6 +317,76 @@ public class CatPostApplicationTests {
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
     }
 
+    @Test
+    void shouldLinkToImageInsteadOfInliningIt() {
+        ResponseEntity<String> response = restTemplate
+                .getForEntity("/catposts/5", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).doesNotContain("\"image\"");
+
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        String imageUrl = documentContext.read("$.imageUrl");
+        assertThat(imageUrl).isEqualTo("/catposts/5/image");
+    }
+
+    @Test
+    void unauthorizedShouldBeAbleToGetPostImage() throws IOException {
+        ResponseEntity<byte[]> response = restTemplate
+                .getForEntity("/catposts/5/image", byte[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getHeaders().getContentType()).isEqualTo(MediaType.IMAGE_PNG);
+        assertThat(response.getHeaders().getETag()).isNotBlank();
+        assertThat(response.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getHeaders().getContentLength()).isEqualTo(Files.size(testFile));
+        assertThat(response.getBody()).isEqualTo(Files.readAllBytes(testFile));
+    }
+
+    @Test
+    void shouldAnswerNotModifiedWhenImageETagMatches() {
+        String eTag = restTemplate
+                .getForEntity("/catposts/5/image", byte[].class)
+                .getHeaders().getETag();
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setIfNoneMatch(eTag);
+        ResponseEntity<byte[]> response = restTemplate
+                .exchange("/catposts/5/image", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_MODIFIED);
+        assertThat(response.getBody()).isNullOrEmpty();
+    }
+
+    @Test
+    void shouldServeRangeOfImage() throws IOException {
+        byte[] file = Files.readAllBytes(testFile);
+        HttpHeaders headers = new HttpHeaders();
+        headers.setRange(HttpRange.parseRanges("bytes=8-15"));
+        ResponseEntity<byte[]> response = restTemplate
+                .exchange("/catposts/5/image", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.PARTIAL_CONTENT);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 8-15/" + file.length);
+        assertThat(response.getBody()).isEqualTo(Arrays.copyOfRange(file, 8, 16));
+
+        headers.setRange(HttpRange.parseRanges("bytes=" + file.length + "-"));
+        response = restTemplate
+                .exchange("/catposts/5/image", HttpMethod.GET, new HttpEntity<>(headers), byte[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        assertThat(response.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */" + file.length);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldNotBeAbleToGetOthersUnapprovedPostImage() {
+        shouldDisapprovePost();
+        ResponseEntity<byte[]> response = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .getForEntity("/catposts/5/image", byte[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+        response = restTemplate
+                .getForEntity("/catposts/5/image", byte[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
     @Test
     void shouldBeAbleToGetEachOthersPost() {
         ResponseEntity<String> response = restTemplate
@@ -313,6 +463,49 @@ public class CatPostApplicationTests {
         assertThat(dates).containsExactly("2025-04-09T02:30:30Z");
     }
 
+    @Test
+    void shouldWalkPostsWithCursor() {
+        TestRestTemplate paul = restTemplate.withBasicAuth("paul", "abc123");
+        List<Integer> walked = new ArrayList<>();
+        String cursor = "";
+        for (int pages = 1; ; pages++) {
+            ResponseEntity<String> response = paul.getForEntity("/catposts/fromOwnerId/paul?size=1&cursor=" + cursor, String.class);
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+            JSONArray page = JsonPath.parse(response.getBody()).read("$[*]");
+            assertThat(page.size()).isEqualTo(1);
+            walked.addAll(JsonPath.parse(response.getBody()).read("$[*].id"));
+            cursor = response.getHeaders().getFirst("Next-Cursor");
+            if (cursor == null) {
+                assertThat(pages).isEqualTo(3);
+                break;
+            }
+        }
+        List<Integer> all = JsonPath.parse(paul.getForObject("/catposts/fromOwnerId/paul", String.class)).read("$[*].id");
+        assertThat(walked).isEqualTo(all);
+    }
+
+    @Test
+    void shouldWalkSummariesWithCursorAndHideUnapproved() {
+        ResponseEntity<String> response = restTemplate.getForEntity("/catposts/fromCatId/5?view=summary&size=1&cursor=", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).doesNotContain("\"image\"");
+        List<Integer> walked = new ArrayList<>(JsonPath.parse(response.getBody()).read("$[*].id"));
+        String cursor = response.getHeaders().getFirst("Next-Cursor");
+        while (cursor != null) {
+            response = restTemplate.getForEntity("/catposts/fromCatId/5?view=summary&size=1&cursor=" + cursor, String.class);
+            walked.addAll(JsonPath.parse(response.getBody()).read("$[*].id"));
+            cursor = response.getHeaders().getFirst("Next-Cursor");
+        }
+        List<Integer> approved = JsonPath.parse(restTemplate.getForObject("/catposts/fromCatId/5?view=summary", String.class)).read("$[*].id");
+        assertThat(walked).isEqualTo(approved);
+    }
+
+    @Test
+    void shouldRejectCursorsItDidNotHandOut() {
+        ResponseEntity<String> response = restTemplate.getForEntity("/catposts/fromOwnerId/paul?cursor=notacursor", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
     @Test
     void shouldReturnAllPostsFromPrincipal() {
         ResponseEntity<String> response = restTemplate
@@ -355,7 +548,7 @@ public class CatPostApplicationTests {
         int id = documentContext.read("$.id");
         assertThat(id).isEqualTo(1);
 
-        byte[] image = Base64.getDecoder().decode((String)documentContext.read("$.image"));
+        byte[] image = download(documentContext.read("$.imageUrl"), "paul", "abc123");
         assertThat(image).isEqualTo(testBlob.getBinaryStream().readAllBytes());
 
         int likeCount = documentContext.read("$.likeCount");
@@ -374,6 +567,67 @@ public class CatPostApplicationTests {
         assertThat(isApproved).isEqualTo(null);
     }
 
+    @Test
+    @DirtiesContext
+    void shouldCreateNewPostFromMultipartUpload() throws IOException {
+        MultiValueMap<String, Object> parts = new LinkedMultiValueMap<>();
+        parts.add("post", new HttpEntity<>(new Post(null, null, 0L, 5L, null, "Tall cat, sent as a file", null, false), jsonHeaders()));
+        parts.add("image", new FileSystemResource(testFile));
+        ResponseEntity<Void> createResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .postForEntity("/catposts", parts, Void.class);
+        assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        ResponseEntity<String> getResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .getForEntity(createResponse.getHeaders().getLocation(), String.class);
+        assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext documentContext = JsonPath.parse(getResponse.getBody());
+
+        String desc = documentContext.read("$.desc");
+        assertThat(desc).isEqualTo("Tall cat, sent as a file");
+        String userOwner = documentContext.read("$.userOwner");
+        assertThat(userOwner).isEqualTo("paul");
+        byte[] image = download(documentContext.read("$.imageUrl"), "paul", "abc123");
+        assertThat(image).isEqualTo(Files.readAllBytes(testFile));
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldCreateNewPostFromRawImage() throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        ResponseEntity<Void> createResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .postForEntity("/catposts?catOwner=5&desc=raw cat", new HttpEntity<>(Files.readAllBytes(testFile), headers), Void.class);
+        assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        ResponseEntity<String> getResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .getForEntity(createResponse.getHeaders().getLocation(), String.class);
+        assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext documentContext = JsonPath.parse(getResponse.getBody());
+
+        String desc = documentContext.read("$.desc");
+        assertThat(desc).isEqualTo("raw cat");
+        Number catOwner = documentContext.read("$.catOwner");
+        assertThat(catOwner).isEqualTo(5);
+        Object isApproved = documentContext.read("$.isApproved");
+        assertThat(isApproved).isEqualTo(null);
+        byte[] image = download(documentContext.read("$.imageUrl"), "paul", "abc123");
+        assertThat(image).isEqualTo(Files.readAllBytes(testFile));
+    }
+
+    @Test
+    void shouldNotCreatePostFromEmptyRawImage() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        ResponseEntity<Void> createResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .postForEntity("/catposts?catOwner=5", new HttpEntity<>(new byte[0], headers), Void.class);
+        assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
     @Test
     @DirtiesContext
     void regularUserShouldCreateNewPostWithoutOverridingUnoverridableDefaults() throws IOException, SQLException {
@@ -398,7 +652,7 @@ public class CatPostApplicationTests {
         int id = documentContext.read("$.id");
         assertThat(id).isEqualTo(1);
 
-        byte[] image = Base64.getDecoder().decode((String)documentContext.read("$.image"));
+        byte[] image = download(documentContext.read("$.imageUrl"), "paul", "abc123");
         assertThat(image).isEqualTo(testBlob.getBinaryStream().readAllBytes());
 
         int likeCount = documentContext.read("$.likeCount");
@@ -441,7 +695,7 @@ public class CatPostApplicationTests {
         int id = documentContext.read("$.id");
         assertThat(id).isEqualTo(1);
 
-        byte[] image = Base64.getDecoder().decode((String)documentContext.read("$.image"));
+        byte[] image = download(documentContext.read("$.imageUrl"), "paul", "abc123");
         assertThat(image).isEqualTo(testBlob.getBinaryStream().readAllBytes());
 
         int likeCount = documentContext.read("$.likeCount");
@@ -619,7 +873,8 @@ public class CatPostApplicationTests {
                 .exchange("/catposts/fromOwnerId/paul", HttpMethod.GET, null, String.class);
         assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(getResponse.getBody()).isNotNull();
-        assertThat(getResponse.getBody().length()).isGreaterThan(10000); //def over 10k chars, if not something is wrong
+        int postCount = JsonPath.parse(getResponse.getBody()).read("$.length()");
+        assertThat(postCount).isEqualTo(3); //images are only linked now, so count the posts instead of the characters
     }
 
     @Test
@@ -675,7 +930,8 @@ public class CatPostApplicationTests {
                 .exchange("/catposts/fromCatId/5", HttpMethod.GET, null, String.class);
         assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(getResponse.getBody()).isNotNull();
-        assertThat(getResponse.getBody().length()).isGreaterThan(10000); //def over 10k chars, if not something is wrong
+        int postCount = JsonPath.parse(getResponse.getBody()).read("$.length()");
+        assertThat(postCount).isEqualTo(2); //images are only linked now, so count the posts instead of the characters
     }
 
     @Test
@@ -706,7 +962,7 @@ public class CatPostApplicationTests {
         Integer catOwner = documentContext.read("$.catOwner");
         assertThat(catOwner).isEqualTo(5);
 
-        byte[] image = Base64.getDecoder().decode((String)documentContext.read("$.image"));
+        byte[] image = download(documentContext.read("$.imageUrl"), "paul", "abc123");
         assertThat(image).isEqualTo(Files.readAllBytes(testFile));
 
         String userOwner = documentContext.read("$.userOwner");
@@ -724,7 +980,118 @@ public class CatPostApplicationTests {
 
     @Test
     @DirtiesContext
-    void shouldUpdateOnlyLikeIfNonOwnerNonAdmin() throws IOException, SQLException {
+    void shouldPatchLikeCountWithoutGoingBelowZeroIfAdmin() {
+        ResponseEntity<Void> patchResponse = restTemplate
+                .withBasicAuth("legoaggelos", "admin")
+                .exchange("/catposts/5/likeCount?delta=-1", HttpMethod.PATCH, null, Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND); //already 0
+
+        patchResponse = restTemplate
+                .withBasicAuth("legoaggelos", "admin")
+                .exchange("/catposts/5/likeCount?delta=2", HttpMethod.PATCH, null, Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        patchResponse = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/catposts/5/likeCount?delta=1", HttpMethod.PATCH, null, Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN); //likes go through /likedPost
+        patchResponse = restTemplate
+                .exchange("/catposts/5/likeCount?delta=1", HttpMethod.PATCH, null, Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.UNAUTHORIZED);
+
+        Number likeCount = JsonPath.parse(restTemplate.getForObject("/catposts/5", String.class)).read("$.likeCount");
+        assertThat(likeCount).isEqualTo(2);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldModeratePendingPostsInBulkIfAdmin() throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        ResponseEntity<Void> createResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .postForEntity("/catposts?catOwner=5&desc=pending cat", new HttpEntity<>(Files.readAllBytes(testFile), headers), Void.class);
+        assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        String path = createResponse.getHeaders().getLocation().getPath();
+        int pendingId = Integer.parseInt(path.substring(path.lastIndexOf('/') + 1));
+
+        TestRestTemplate admin = restTemplate.withBasicAuth("legoaggelos", "admin");
+        ResponseEntity<String> queue = admin.getForEntity("/catposts/pending", String.class);
+        assertThat(queue.getStatusCode()).isEqualTo(HttpStatus.OK);
+        List<Integer> ids = JsonPath.parse(queue.getBody()).read("$[*].id");
+        assertThat(ids).containsExactly(pendingId);
+        assertThat(queue.getBody()).doesNotContain("\"image\"");
+
+        ResponseEntity<Integer> approved = admin.exchange("/catposts/pending?isApproved=true", HttpMethod.PATCH, new HttpEntity<>(List.of(pendingId, 5)), Integer.class);
+        assertThat(approved.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(approved.getBody()).isEqualTo(1); //5 was approved already
+        assertThat(admin.getForEntity("/catposts/pending", String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(restTemplate.getForEntity(path, String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        ResponseEntity<Integer> rejected = admin.exchange("/catposts/pending?isApproved=false", HttpMethod.PATCH, new HttpEntity<>(List.of(3, 2)), Integer.class);
+        assertThat(rejected.getBody()).isEqualTo(2);
+        assertThat(restTemplate.getForEntity("/catposts/3", String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(admin.getForEntity("/catposts/pending", String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND); //rejected isn't pending
+    }
+
+    @Test
+    void shouldNotModerateIfNotAdmin() {
+        ResponseEntity<String> queue = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .getForEntity("/catposts/pending", String.class);
+        assertThat(queue.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+
+        ResponseEntity<Integer> approved = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .exchange("/catposts/pending?isApproved=false", HttpMethod.PATCH, new HttpEntity<>(List.of(5)), Integer.class);
+        assertThat(approved.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+        assertThat(restTemplate.getForEntity("/catposts/5", String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldPatchOnlyWhatTheCallerMayChange() {
+        Post patch = new Post(null, null, null, null, null, "patched cat", null, false);
+        ResponseEntity<Void> patchResponse = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/catposts/5", HttpMethod.PATCH, new HttpEntity<>(patch), Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN); //not kat's post and kat isn't an admin
+        patchResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .exchange("/catposts/5", HttpMethod.PATCH, new HttpEntity<>(patch), Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN); //paul isn't an admin, so not even desc changes
+        assertThat(JsonPath.parse(restTemplate.getForObject("/catposts/5", String.class)).read("$.desc", String.class)).isEqualTo("Cute cat!!");
+        patchResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .exchange("/catposts/5", HttpMethod.PATCH, new HttpEntity<>(new Post(null, null, null, null, null, "patched cat", null, null)), Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+        DocumentContext documentContext = JsonPath.parse(restTemplate.getForObject("/catposts/5", String.class));
+        String desc = documentContext.read("$.desc");
+        assertThat(desc).isEqualTo("patched cat");
+        Boolean isApproved = documentContext.read("$.isApproved");
+        assertThat(isApproved).isTrue();
+        String imageUrl = documentContext.read("$.imageUrl");
+        assertThat(imageUrl).isEqualTo("/catposts/5/image");
+
+        patchResponse = restTemplate
+                .withBasicAuth("legoaggelos", "admin")
+                .exchange("/catposts/5", HttpMethod.PATCH, new HttpEntity<>(new Post(null, null, null, null, null, null, null, false)), Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(restTemplate.getForEntity("/catposts/5", String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND); //unapproved now
+        patchResponse = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/catposts/5", HttpMethod.PATCH, new HttpEntity<>(patch), Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND); //hidden from kat, the same as a post that doesn't exist
+
+        patchResponse = restTemplate
+                .withBasicAuth("legoaggelos", "admin")
+                .exchange("/catposts/999", HttpMethod.PATCH, new HttpEntity<>(patch), Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldNotUpdateAnythingIfNonOwnerNonAdmin() throws IOException, SQLException {
         byte[] bytes = new byte[] {1,2,3,4,5,6,7,1,2,3,4,45,65,53};
         SerialBlob newImage = new SerialBlob(bytes);
         Post newPost = new Post(4L, newImage,1L, 4L, "kat", "Ugly cat", Instant.now().atOffset(sampleDate.getOffset()), false);
@@ -745,12 +1112,12 @@ public class CatPostApplicationTests {
         assertThat(id).isEqualTo(5);
 
         Integer likeCount = documentContext.read("$.likeCount");
-        assertThat(likeCount).isEqualTo(1);
+        assertThat(likeCount).isEqualTo(0); //likes are counted from /likedPost, not taken from clients
 
         Integer catOwner = documentContext.read("$.catOwner");
         assertThat(catOwner).isEqualTo(5);
 
-        byte[] image = Base64.getDecoder().decode((String)documentContext.read("$.image"));
+        byte[] image = download(documentContext.read("$.imageUrl"), "paul", "abc123");
         assertThat(image).isEqualTo(Files.readAllBytes(testFile));
 
         String userOwner = documentContext.read("$.userOwner");
@@ -840,7 +1207,7 @@ public class CatPostApplicationTests {
         Integer catOwner = documentContext.read("$.catOwner");
         assertThat(catOwner).isEqualTo(5);
 
-        byte[] image = Base64.getDecoder().decode((String)documentContext.read("$.image"));
+        byte[] image = download(documentContext.read("$.imageUrl"), "paul", "abc123");
         assertThat(image).isEqualTo(Files.readAllBytes(testFile));
 
         String userOwner = documentContext.read("$.userOwner");
@@ -906,7 +1273,7 @@ public class CatPostApplicationTests {
         Integer catOwner = documentContext.read("$.catOwner");
         assertThat(catOwner).isEqualTo(5);
 
-        byte[] image = Base64.getDecoder().decode((String)documentContext.read("$.image"));
+        byte[] image = download(documentContext.read("$.imageUrl"), "paul", "abc123");
         assertThat(image).isEqualTo(Files.readAllBytes(testFile));
 
         String userOwner = documentContext.read("$.userOwner");
@@ -924,15 +1291,30 @@ public class CatPostApplicationTests {
     @Test
     @DirtiesContext
     @Sql("/delete-not-liked-comments-posts.sql")
-    void shouldNotDeletePostWhenItHasComments() {
+    void shouldDeletePostsWithTheirCommentsWhenDeletingUser() throws InterruptedException {
         ResponseEntity<Void> response = restTemplate
                 .withBasicAuth("legoaggelos", "admin")
                 .exchange("/users/kat", HttpMethod.DELETE, null, Void.class);
-        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.ACCEPTED); //the comments used to stop it
+
+        for (int attempt = 0; attempt < 100 && restTemplate.getForEntity("/users/kat", String.class).getStatusCode() == HttpStatus.OK; attempt++) {
+            Thread.sleep(100); //deleted in the background
+        }
+        assertThat(restTemplate.getForEntity("/users/kat", String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(restTemplate.getForEntity("/catposts/4", String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    private byte[] download(String url, String username, String password) {
+        ResponseEntity<byte[]> response = restTemplate
+                .withBasicAuth(username, password)
+                .getForEntity(url, byte[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        return response.getBody();
+    }
 
-        ResponseEntity<String> get = restTemplate
-                .getForEntity("/users/kat", String.class);
-        assertThat(get.getStatusCode()).isEqualTo(HttpStatus.OK);
-        assertThat(get.getBody()).isNotEmpty();
+    private static HttpHeaders jsonHeaders() {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_JSON);
+        return headers;
     }
 }
@@ -3,6 +3,7 @@ package com.legoaggelos.catplace;
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
 import com.legoaggelos.catplace.cats.posts.comments.Comment;
+import com.legoaggelos.catplace.cats.posts.comments.CommentCounts;
 import net.minidev.json.JSONArray;
 import org.apache.coyote.Response;
 import org.junit.jupiter.api.Test;
@@ -15,6 +16,7 @@ import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.jdbc.Sql;
 
@@ -30,6 +32,12 @@ public class CommentTests {
     @Autowired
     TestRestTemplate restTemplate;
 
+    @Autowired
+    CommentCounts commentCounts;
+
+    @Autowired
+    JdbcClient jdbcClient;
+
     protected static final OffsetDateTime sampleDate = OffsetDateTime.of(2025,4, 8, 2, 30, 30, 0, ZoneOffset.ofHours(0));
 
     @Test
@@ -91,6 +99,58 @@ public class CommentTests {
         assertThat(postTimes).containsExactly("2025-04-08T02:45:45Z", "2025-04-08T02:45:30Z", "2025-04-08T02:40:30Z");
     }
 
+    @Test
+    void shouldGetCommentsFromPostWithCursor() {
+        ResponseEntity<String> response = restTemplate.getForEntity("/comments/fromPostId/4?size=2&cursor=", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        JSONArray postTimes = JsonPath.parse(response.getBody()).read("$..postTime");
+        assertThat(postTimes).containsExactly("2025-04-08T02:45:45Z", "2025-04-08T02:45:30Z");
+
+        String cursor = response.getHeaders().getFirst("Next-Cursor");
+        assertThat(cursor).isNotNull();
+        response = restTemplate.getForEntity("/comments/fromPostId/4?size=2&cursor=" + cursor, String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        postTimes = JsonPath.parse(response.getBody()).read("$..postTime");
+        assertThat(postTimes).containsExactly("2025-04-08T02:40:30Z");
+        assertThat(response.getHeaders().containsKey("Next-Cursor")).isFalse();
+    }
+
+    @Test
+    void shouldGetWholeThreadOfPost() {
+        ResponseEntity<String> response = restTemplate.getForEntity("/comments/thread/2", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        DocumentContext documentContext = JsonPath.parse(response.getBody());
+        JSONArray topLevel = documentContext.read("$[*].id");
+        assertThat(topLevel).containsExactly(3);
+        JSONArray replies = documentContext.read("$[0].replies[*].id");
+        assertThat(replies).containsExactly(46, 48); //oldest first, like a conversation
+        String content = documentContext.read("$[0].content");
+        assertThat(content).isEqualTo("Love your car");
+        assertThat(response.getHeaders().containsKey("Next-Cursor")).isFalse();
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldGetSubtreeDownToDepth() {
+        Comment reply = new Comment(null, "it is not", null, 4L, null, "kat", 4L, null, 48L);
+        ResponseEntity<Void> createResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .postForEntity("/comments", reply, Void.class);
+        assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        DocumentContext subtree = JsonPath.parse(restTemplate.getForObject("/comments/3/subtree", String.class));
+        JSONArray nested = subtree.read("$.replies[1].replies[*].content");
+        assertThat(nested).containsExactly("it is not");
+
+        subtree = JsonPath.parse(restTemplate.getForObject("/comments/3/subtree?depth=1", String.class));
+        JSONArray replies = subtree.read("$.replies[*].id");
+        assertThat(replies).containsExactly(46, 48);
+        JSONArray cutOff = subtree.read("$.replies[1].replies");
+        assertThat(cutOff).isEmpty();
+
+        assertThat(restTemplate.getForEntity("/comments/9999/subtree", String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
     @Test
     void shouldGetAllCommentsFromUser() {
         ResponseEntity<String> response = restTemplate
@@ -242,7 +302,39 @@ public class CommentTests {
 
     @Test
     @DirtiesContext
-    void shouldUpdateOnlyLikeCountIfNotOwnerNotAdmin() {
+    void shouldPatchLikeCountAndContent() {
+        ResponseEntity<Void> patchResponse = restTemplate
+                .withBasicAuth("legoaggelos", "admin")
+                .exchange("/comments/46/likeCount?delta=1", HttpMethod.PATCH, null, Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+        patchResponse = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/comments/46/likeCount?delta=1", HttpMethod.PATCH, null, Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN); //likes go through /likedComment
+
+        Comment patch = new Comment(null, "Love your cat!!", null, null, null, null, null, null, null);
+        patchResponse = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/comments/46", HttpMethod.PATCH, new HttpEntity<>(patch), Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND); //not kat's comment
+        patchResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .exchange("/comments/46", HttpMethod.PATCH, new HttpEntity<>(patch), Void.class);
+        assertThat(patchResponse.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+        DocumentContext documentContext = JsonPath.parse(restTemplate.getForObject("/comments/46", String.class));
+        int likeCount = documentContext.read("$.likeCount");
+        assertThat(likeCount).isEqualTo(1);
+        String content = documentContext.read("$.content");
+        assertThat(content).isEqualTo("Love your cat!!");
+        int replying = documentContext.read("$.replyingTo");
+        assertThat(replying).isEqualTo(3);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldNotUpdateAnythingIfNotOwnerNotAdmin() {
         Comment update = new Comment(13L, "Love your cat \n edit: thanks for 0 likes!!", 1L, 414L, "kego", "someone", 3123L, sampleDate, 4141L);
         HttpEntity<Comment> entity = new HttpEntity<>(update);
 
@@ -265,7 +357,7 @@ public class CommentTests {
         assertThat(postId).isEqualTo(4);
 
         int likeCount = documentContext.read("$.likeCount");
-        assertThat(likeCount).isEqualTo(1);
+        assertThat(likeCount).isEqualTo(0); //likes are counted from /likedComment, not taken from clients
 
         int postCatPoster = documentContext.read("$.postCatPoster");
         assertThat(postCatPoster).isEqualTo(4);
@@ -745,6 +837,57 @@ public class CommentTests {
         assertThat(((JSONArray)JsonPath.parse(otherGets.getBody()).read("$[*]")).size()).isEqualTo(2); //one less than usual
     }
 
+    @Test
+    @DirtiesContext
+    void shouldDeleteRepliesToRepliesToo() {
+        Comment reply = new Comment(null, "it is not", null, 4L, null, "kat", 4L, null, 48L);
+        assertThat(restTemplate.withBasicAuth("paul", "abc123").postForEntity("/comments", reply, Void.class).getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        ResponseEntity<Void> deleteResponse = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/comments/deleteByReplyingTo/3", HttpMethod.DELETE, null, Void.class);
+        assertThat(deleteResponse.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+
+        assertThat(restTemplate.getForEntity("/comments/3", String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+        ResponseEntity<String> otherGets = restTemplate.getForEntity("/comments/fromPoster/paul", String.class);
+        JSONArray contents = JsonPath.parse(otherGets.getBody()).read("$[*].content");
+        assertThat(contents).containsExactly("Your cat is so cute!!"); //46 went with its parent, the new reply with its grandparent
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldDeleteCommentWithItsSubtreeAndLikes() {
+        Comment reply = new Comment(null, "it is not", null, 4L, null, "kat", 4L, null, 48L);
+        assertThat(restTemplate.withBasicAuth("paul", "abc123").postForEntity("/comments", reply, Void.class).getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        ResponseEntity<Integer> deleteResponse = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/comments/3/subtree", HttpMethod.DELETE, null, Integer.class);
+        assertThat(deleteResponse.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(deleteResponse.getBody()).isEqualTo(4); //3, 46, 48 and the reply to 48
+
+        assertThat(restTemplate.getForEntity("/comments/3", String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(restTemplate.getForEntity("/comments/46", String.class).getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        ResponseEntity<Void> liked = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .getForEntity("/likedComment/46", Void.class);
+        assertThat(liked.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+
+        //46, 48 and the reply were on post 4, 3 on post 2
+        assertThat(commentCountOf(4)).isEqualTo(1);
+        assertThat(commentCountOf(2)).isEqualTo(0);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldNotDeleteOthersSubtreeIfNotAdmin() {
+        ResponseEntity<Integer> deleteResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .exchange("/comments/3/subtree", HttpMethod.DELETE, null, Integer.class);
+        assertThat(deleteResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+        assertThat(restTemplate.getForEntity("/comments/46", String.class).getStatusCode()).isEqualTo(HttpStatus.OK);
+    }
+
     @Test
     @DirtiesContext
     void shouldNotDeleteRepliesInOthersCommentIfNotAdmin() {
@@ -915,4 +1058,59 @@ public class CommentTests {
         assertThat(get.getStatusCode()).isEqualTo(HttpStatus.OK);
         assertThat(get.getBody()).isNotEmpty();
     }
+
+    @Test
+    @DirtiesContext
+    void shouldCountCommentsAndRepliesAsTheyComeAndGo() {
+        assertThat(commentCountOf(4)).isEqualTo(3); //counted at startup, data.sql doesn't set them
+        assertThat(replyCountOf(3)).isEqualTo(2);
+
+        Comment reply = new Comment(null, "thank you", null, 4L, null, "kat", 4L, null, 4L);
+        ResponseEntity<Void> created = restTemplate.withBasicAuth("paul", "abc123").postForEntity("/comments", reply, Void.class);
+        assertThat(created.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(commentCountOf(4)).isEqualTo(4);
+        assertThat(replyCountOf(4)).isEqualTo(1);
+
+        ResponseEntity<Void> deleted = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .exchange(created.getHeaders().getLocation(), HttpMethod.DELETE, null, Void.class);
+        assertThat(deleted.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(commentCountOf(4)).isEqualTo(3);
+        assertThat(replyCountOf(4)).isEqualTo(0);
+    }
+
+    @Test
+    @DirtiesContext
+    @Sql("/delete-comments-posts.sql")
+    void shouldRecountCommentsOfPostsWhenDeletingAllOfPoster() {
+        ResponseEntity<Void> response = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/comments/deleteByPoster/kat", HttpMethod.DELETE, null, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(commentCountOf(5)).isEqualTo(0);
+        assertThat(commentCountOf(4)).isEqualTo(2); //4 and 46 are paul's
+        assertThat(replyCountOf(3)).isEqualTo(-1); //deleted
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldRepairDriftedCounts() {
+        jdbcClient.sql("update POST set COMMENT_COUNT = 100 where ID = 2").update();
+        jdbcClient.sql("update COMMENT set REPLY_COUNT = 7 where ID = 4").update();
+
+        assertThat(commentCounts.repair()).isEqualTo(2);
+        assertThat(commentCountOf(2)).isEqualTo(1);
+        assertThat(replyCountOf(4)).isEqualTo(0);
+        assertThat(commentCounts.repair()).isEqualTo(0);
+    }
+
+    private int commentCountOf(long postId) {
+        return JsonPath.parse(restTemplate.getForObject("/catposts/" + postId, String.class)).read("$.commentCount");
+    }
+
+    //-1 if the comment is gone
+    private int replyCountOf(long commentId) {
+        ResponseEntity<String> response = restTemplate.getForEntity("/comments/" + commentId, String.class);
+        return response.getStatusCode() == HttpStatus.NOT_FOUND ? -1 : JsonPath.parse(response.getBody()).read("$.replyCount");
+    }
 }
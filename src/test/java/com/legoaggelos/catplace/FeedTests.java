@@ -0,0 +1,132 @@
+package com.legoaggelos.catplace;
+
+import com.jayway.jsonpath.JsonPath;
+import com.legoaggelos.catplace.cats.posts.Post;
+import com.legoaggelos.catplace.cats.posts.Timeline;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.jdbc.Sql;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@AutoConfigureTestDatabase
+class FeedTests {
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Autowired
+    JdbcClient jdbcClient;
+
+    @Autowired
+    Timeline timeline;
+
+    @Test
+    void shouldServeApprovedPostsNewestFirst() {
+        ResponseEntity<String> response = restTemplate.getForEntity("/feed", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        List<Integer> ids = JsonPath.parse(response.getBody()).read("$[*].id");
+        assertThat(ids).containsExactly(3, 5, 2, 4); //the seeded posts have no approval time, so upload date decides
+        List<Integer> commentCounts = JsonPath.parse(response.getBody()).read("$[*].commentCount");
+        assertThat(commentCounts).containsExactly(0, 1, 1, 3);
+        assertThat(response.getBody()).doesNotContain("\"image\"");
+    }
+
+    @Test
+    void shouldPageThroughFeed() {
+        List<Integer> ids = JsonPath.parse(restTemplate.getForObject("/feed?page=1&size=2", String.class)).read("$[*].id");
+        assertThat(ids).containsExactly(2, 4);
+
+        ResponseEntity<String> response = restTemplate.getForEntity("/feed?page=2&size=2", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldPutPostsOnTopWhenTheyAreApproved() throws IOException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        HttpEntity<byte[]> image = new HttpEntity<>(Files.readAllBytes(Paths.get("img.png")), headers);
+        ResponseEntity<Void> created = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .postForEntity("/catposts?catOwner=5&desc=waiting", image, Void.class);
+        long waiting = idOf(created);
+        assertThat(feedIds()).containsExactly(3, 5, 2, 4);
+
+        patchApproval(waiting, true);
+        assertThat(feedIds()).containsExactly((int) waiting, 3, 5, 2, 4);
+        patchApproval(5, true); //already approved, so it isn't moved up again
+        assertThat(feedIds()).containsExactly((int) waiting, 3, 5, 2, 4);
+        patchApproval(5, false);
+        assertThat(feedIds()).containsExactly((int) waiting, 3, 2, 4);
+        patchApproval(5, true);
+        assertThat(feedIds()).containsExactly(5, (int) waiting, 3, 2, 4);
+
+        //what a restarted application would start from
+        assertThat(new Timeline(jdbcClient, 500).newest(0, 10)).containsExactly(5L, waiting, 3L, 2L, 4L);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldKeepAFullTimelineAcrossGapsInSeq() {
+        Timeline small = new Timeline(jdbcClient, 3);
+        small.addAll(List.of(4L, 2L, 5L));
+        small.remove(2L); //leaves a gap among the newest SEQs
+        small.add(3L);
+        assertThat(small.newest(0, 10)).containsExactly(3L, 5L, 4L);
+
+        //what a restarted application would start from
+        assertThat(new Timeline(jdbcClient, 3).newest(0, 10)).containsExactly(3L, 5L, 4L);
+    }
+
+    private List<Integer> feedIds() {
+        return JsonPath.parse(restTemplate.getForObject("/feed", String.class)).read("$[*].id");
+    }
+
+    @Test
+    @DirtiesContext
+    @Sql("/delete-not-liked-comments-and-liked.sql")
+    void shouldDropBulkDeletedPostsFromTheTimeline() {
+        ResponseEntity<Void> deleteResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .exchange("/catposts/fromCatId/5", HttpMethod.DELETE, null, Void.class);
+        assertThat(deleteResponse.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(timeline.newest(0, 10)).containsExactly(3L, 4L);
+
+        deleteResponse = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/catposts/fromOwnerId/kat", HttpMethod.DELETE, null, Void.class);
+        assertThat(deleteResponse.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(timeline.newest(0, 10)).containsExactly(3L);
+    }
+
+    private void patchApproval(long postId, boolean isApproved) {
+        Post patch = new Post(null, null, null, null, null, null, null, isApproved);
+        ResponseEntity<Void> response = restTemplate
+                .withBasicAuth("legoaggelos", "admin")
+                .exchange("/catposts/" + postId, HttpMethod.PATCH, new HttpEntity<>(patch), Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+    }
+
+    private static long idOf(ResponseEntity<Void> created) {
+        assertThat(created.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        String path = created.getHeaders().getLocation().getPath();
+        return Long.parseLong(path.substring(path.lastIndexOf('/') + 1));
+    }
+}
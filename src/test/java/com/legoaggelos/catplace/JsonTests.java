@@ -289,7 +289,8 @@ public class JsonTests {
 				  "postUserPoster": "kat",
 				  "postCatPoster": 4,
 				  "postTime": "2025-04-08T02:45:45Z",
-				  "replyingTo": 3
+				  "replyingTo": 3,
+				  "replyCount": 0
 				}
 				""";
 		assertThat(jsonComment.parse(jsonString)).isEqualTo(comments[0]);
@@ -0,0 +1,59 @@
+package com.legoaggelos.catplace;
+
+import com.legoaggelos.catplace.security.jwt.JwtUtil;
+import io.jsonwebtoken.Claims;
+import org.junit.jupiter.api.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class JwtUtilTests {
+    private static final String SECRET = "testkeytestkeytestkeytestkeytestkey";
+
+    @Test
+    void shouldParseOwnToken() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 120_000, 16);
+        String token = jwtUtil.generateToken("paul");
+        assertThat(jwtUtil.parseClaims(token)).map(Claims::getSubject).contains("paul");
+        assertThat(jwtUtil.getUsernameFromToken(token)).isEqualTo("paul");
+        assertThat(jwtUtil.validateJwtToken(token)).isTrue();
+    }
+
+    @Test
+    void shouldVerifyATokenOnlyOnce() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 120_000, 16);
+        String token = jwtUtil.generateToken("paul");
+        Claims first = jwtUtil.parseClaims(token).orElseThrow();
+        assertThat(jwtUtil.parseClaims(token)).containsSame(first);
+    }
+
+    @Test
+    void shouldRejectTokensSignedWithAnotherKey() {
+        String forged = new JwtUtil("anotherkeyanotherkeyanotherkeyanother", 60_000, 120_000, 16).generateToken("legoaggelos");
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 120_000, 16);
+        assertThat(jwtUtil.parseClaims(forged)).isEmpty();
+        assertThat(jwtUtil.parseClaims("not.a.token")).isEmpty();
+    }
+
+    @Test
+    void shouldNotServeExpiredTokensFromTheCache() throws InterruptedException {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 1_000, 120_000, 16);
+        String token = jwtUtil.generateToken("paul");
+        assertThat(jwtUtil.parseClaims(token)).isPresent();
+        Thread.sleep(2_100); //expiration is in whole seconds
+        assertThat(jwtUtil.parseClaims(token)).isEmpty();
+    }
+
+    @Test
+    void shouldKeepOnlyTheMostRecentlyUsedTokens() {
+        JwtUtil jwtUtil = new JwtUtil(SECRET, 60_000, 120_000, 1);
+        String paul = jwtUtil.generateToken("paul");
+        String kat = jwtUtil.generateToken("kat");
+        Claims paulsClaims = jwtUtil.parseClaims(paul).orElseThrow();
+        jwtUtil.parseClaims(kat); //evicts paul's
+        Optional<Claims> again = jwtUtil.parseClaims(paul);
+        assertThat(again).map(Claims::getSubject).contains("paul");
+        assertThat(again.get()).isNotSameAs(paulsClaims);
+    }
+}
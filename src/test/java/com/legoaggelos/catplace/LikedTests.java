@@ -2,6 +2,7 @@ package com.legoaggelos.catplace;
 
 import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.JsonPath;
+import com.legoaggelos.catplace.likehandling.LikeCounters;
 import com.legoaggelos.catplace.likehandling.LikedPost;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,17 +13,33 @@ import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.simple.JdbcClient;
 import org.springframework.test.annotation.DirtiesContext;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
-@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "catplace.likes.flush-interval=PT1H") //tests flush themselves
 @AutoConfigureTestDatabase
 public class LikedTests {
     @Autowired
     TestRestTemplate restTemplate;
 
+    @Autowired
+    LikeCounters likeCounters;
+
+    @Autowired
+    JdbcClient jdbcClient;
+
     @Test
     void checkCorrectTableAccess() {
         ResponseEntity<String> postGet = restTemplate
@@ -207,6 +224,36 @@ public class LikedTests {
         assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
     }
 
+    @Test
+    void shouldTellWhichPostsAreLikedInOneCall() {
+        ResponseEntity<Boolean[]> response = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .postForEntity("/likedPost/batch", List.of(2L, 5L, 4L, 9999L, 3L), Boolean[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).containsExactly(false, true, true, false, true);
+    }
+
+    @Test
+    void shouldTellWhichCommentsAreLikedInOneCall() {
+        ResponseEntity<Boolean[]> response = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .postForEntity("/likedComment/batch", List.of(46L, 48L, 4L), Boolean[].class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(response.getBody()).containsExactly(true, false, true);
+    }
+
+    @Test
+    void shouldNotCheckTooManyLikesAtOnce() {
+        List<Long> ids = new ArrayList<>();
+        for (long i = 0; i < 101; i++) {
+            ids.add(i);
+        }
+        ResponseEntity<Void> response = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .postForEntity("/likedPost/batch", ids, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+    }
+
     @Test
     @DirtiesContext
     void shouldLikeComment() {
@@ -233,6 +280,44 @@ public class LikedTests {
                 .withBasicAuth("kat", "xyz789")
                 .getForEntity("/likedPost/2", Void.class);
         assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.NO_CONTENT);
+        assertThat(response.getHeaders().getLocation().getPath()).isEqualTo("/likedPost/2");
+    }
+
+    @Test
+    void shouldNotLikeNonexistentPost() {
+        ResponseEntity<Void> response = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .postForEntity("/likedPost", 9999L, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldLikeOnlyOnceWhenLikingConcurrently() throws InterruptedException {
+        int attempts = 8;
+        List<HttpStatusCode> statuses = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(attempts);
+        for (int i = 0; i < attempts; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                statuses.add(restTemplate
+                        .withBasicAuth("kat", "xyz789")
+                        .postForEntity("/likedPost", 2L, Void.class)
+                        .getStatusCode());
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+
+        assertThat(statuses).hasSize(attempts);
+        assertThat(statuses).containsOnlyOnce(HttpStatus.CREATED);
+        assertThat(likeCounters.pendingPostLikes(2)).isEqualTo(1);
     }
 
     @Test
@@ -291,6 +376,96 @@ public class LikedTests {
         assertThat(getResponse.getStatusCode()).isEqualTo(HttpStatus.NOT_FOUND);
     }
 
+    @Test
+    @DirtiesContext
+    void shouldCountPostLikesBeforeAndAfterFlushing() {
+        ResponseEntity<Void> response = restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .postForEntity("/likedPost", 2L, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        assertThat(postLikeCount(2)).isEqualTo(1); //still pending
+        assertThat(storedLikeCount("POST", 2)).isZero();
+
+        likeCounters.flush();
+        assertThat(storedLikeCount("POST", 2)).isEqualTo(1);
+        assertThat(postLikeCount(2)).isEqualTo(1);
+
+        restTemplate
+                .withBasicAuth("kat", "xyz789")
+                .exchange("/likedPost/2", HttpMethod.DELETE, null, Void.class);
+        assertThat(postLikeCount(2)).isZero();
+        likeCounters.flush();
+        assertThat(storedLikeCount("POST", 2)).isZero();
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldCountCommentLikes() {
+        ResponseEntity<Void> response = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .postForEntity("/likedComment", 2L, Void.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+        Number likeCount = JsonPath.parse(restTemplate.getForObject("/comments/2", String.class)).read("$.likeCount");
+        assertThat(likeCount).isEqualTo(1);
+
+        likeCounters.flush();
+        assertThat(storedLikeCount("COMMENT", 2)).isEqualTo(1);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldNotLoseLikesOfAViralPost() throws InterruptedException {
+        int threads = 8;
+        int likesPerThread = 5000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                for (int like = 0; like < likesPerThread; like++) {
+                    likeCounters.addPostLikes(3, 1);
+                    if (like % 1000 == 0) {
+                        likeCounters.flush(); //flushes racing with likes mustn't lose any
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertThat(executor.awaitTermination(30, TimeUnit.SECONDS)).isTrue();
+        likeCounters.flush();
+
+        assertThat(storedLikeCount("POST", 3)).isEqualTo(threads * likesPerThread);
+        assertThat(likeCounters.pendingPostLikes(3)).isZero();
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldWriteAllOrNoneOfAFlush() {
+        jdbcClient.sql("update POST set LIKE_COUNT = :max where ID = 5").param("max", Long.MAX_VALUE).update();
+        likeCounters.addPostLikes(2, 1);
+        likeCounters.addPostLikes(5, 1); //overflows, fails the whole flush
+
+        likeCounters.flush();
+        assertThat(storedLikeCount("POST", 2)).isZero();
+        assertThat(likeCounters.pendingPostLikes(2)).isEqualTo(1);
+        assertThat(likeCounters.pendingPostLikes(5)).isEqualTo(1);
+
+        jdbcClient.sql("update POST set LIKE_COUNT = 0 where ID = 5").update();
+        likeCounters.flush();
+        assertThat(storedLikeCount("POST", 2)).isEqualTo(1); //not counted twice
+        assertThat(storedLikeCount("POST", 5)).isEqualTo(1);
+    }
+
+    private long postLikeCount(long postId) {
+        Number likeCount = JsonPath.parse(restTemplate.getForObject("/catposts/" + postId, String.class)).read("$.likeCount");
+        return likeCount.longValue();
+    }
+
+    private long storedLikeCount(String table, long id) {
+        return jdbcClient.sql("select LIKE_COUNT from " + table + " where ID = :id")
+                .param("id", id)
+                .query(Long.class)
+                .single();
+    }
+
     @Test
     @DirtiesContext
     void shouldNotDeleteNonExistentCommentLike() {
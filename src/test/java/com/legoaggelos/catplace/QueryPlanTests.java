@@ -0,0 +1,144 @@
+package com.legoaggelos.catplace;
+
+import com.legoaggelos.catplace.cats.CatPlaceRepository;
+import com.legoaggelos.catplace.cats.posts.PostRepository;
+import com.legoaggelos.catplace.cats.posts.comments.CommentRepository;
+import com.legoaggelos.catplace.likehandling.repositories.LikedCommentRepository;
+import com.legoaggelos.catplace.likehandling.repositories.LikedPostRepository;
+import com.legoaggelos.catplace.security.users.CatPlaceUserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jdbc.repository.query.Query;
+import org.springframework.data.repository.Repository;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Parameter;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs EXPLAIN on every query the repositories declare and fails if H2 plans a table scan for any of them,
+ * so a new finder can't quietly go without an index. Derived queries are called once to get their SQL,
+ * with arguments that match no rows.
+ */
+@SpringBootTest
+@AutoConfigureTestDatabase
+class QueryPlanTests {
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    CatPlaceRepository catRepository;
+
+    @Autowired
+    CatPlaceUserRepository userRepository;
+
+    @Autowired
+    PostRepository postRepository;
+
+    @Autowired
+    CommentRepository commentRepository;
+
+    @Autowired
+    LikedPostRepository likedPostRepository;
+
+    @Autowired
+    LikedCommentRepository likedCommentRepository;
+
+    @Test
+    void noRepositoryQueryShouldScanATable() throws Exception {
+        List<Repository<?, ?>> repositories = List.of(catRepository, userRepository, postRepository, commentRepository, likedPostRepository, likedCommentRepository);
+        Set<String> statements = new LinkedHashSet<>();
+        jdbcTemplate.execute("SET QUERY_STATISTICS TRUE");
+        try {
+            for (Repository<?, ?> repository : repositories) {
+                for (Method method : repositoryInterface(repository).getDeclaredMethods()) {
+                    if (method.isBridge()) {
+                        continue; //the generic one behind a redeclared CrudRepository method
+                    }
+                    Query query = method.getAnnotation(Query.class);
+                    if (query != null) {
+                        statements.add(query.value().replaceAll(":\\w+", "?"));
+                    } else {
+                        method.invoke(repository, argumentsMatchingNothing(method));
+                    }
+                }
+            }
+            statements.addAll(jdbcTemplate.queryForList("select SQL_STATEMENT from INFORMATION_SCHEMA.QUERY_STATISTICS where SQL_STATEMENT like 'SELECT%WHERE%'", String.class));
+        } finally {
+            jdbcTemplate.execute("SET QUERY_STATISTICS FALSE");
+        }
+
+        //recursive queries always scan their own working set, only tables count
+        List<String> tableScans = jdbcTemplate.queryForList("select 'PUBLIC.' || TABLE_NAME || '.tableScan' from INFORMATION_SCHEMA.TABLES where TABLE_SCHEMA = 'PUBLIC' and TABLE_TYPE = 'BASE TABLE'", String.class);
+        List<String> scans = new ArrayList<>();
+        for (String statement : statements) {
+            String plan = explain(statement);
+            if (tableScans.stream().anyMatch(plan::contains)) {
+                scans.add(plan);
+            }
+        }
+        assertThat(statements).hasSizeGreaterThan(30);
+        assertThat(scans).isEmpty();
+    }
+
+    //parameters stay parameters in the plan, they only have to be set for EXPLAIN to run
+    private String explain(String statement) {
+        return jdbcTemplate.execute("EXPLAIN " + statement, (java.sql.PreparedStatement ps) -> {
+            int parameters = ps.getParameterMetaData().getParameterCount();
+            for (int i = 1; i <= parameters; i++) {
+                ps.setObject(i, null);
+            }
+            try (var resultSet = ps.executeQuery()) {
+                resultSet.next();
+                return resultSet.getString(1);
+            }
+        });
+    }
+
+    private static Class<?> repositoryInterface(Repository<?, ?> repository) {
+        for (Class<?> candidate : repository.getClass().getInterfaces()) {
+            if (candidate.getPackageName().startsWith("com.legoaggelos")) {
+                return candidate;
+            }
+        }
+        throw new IllegalStateException("No repository interface on " + repository.getClass());
+    }
+
+    private static Object[] argumentsMatchingNothing(Method method) {
+        Parameter[] parameters = method.getParameters();
+        Object[] arguments = new Object[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            Class<?> type = parameters[i].getType();
+            if (type == Long.class || type == long.class) {
+                arguments[i] = -1L;
+            } else if (type == int.class) {
+                arguments[i] = 10;
+            } else if (type == boolean.class) {
+                arguments[i] = true;
+            } else if (type == String.class) {
+                arguments[i] = "nobody";
+            } else if (type == OffsetDateTime.class) {
+                arguments[i] = OffsetDateTime.now();
+            } else if (Pageable.class.isAssignableFrom(type)) {
+                arguments[i] = PageRequest.of(0, 10);
+            } else if (Collection.class.isAssignableFrom(type)) {
+                arguments[i] = List.of(-1L);
+            } else {
+                throw new IllegalArgumentException("Add an argument for " + type + " to call " + method);
+            }
+        }
+        return arguments;
+    }
+}
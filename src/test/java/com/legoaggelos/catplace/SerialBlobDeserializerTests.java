@@ -0,0 +1,121 @@
+package com.legoaggelos.catplace;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.legoaggelos.catplace.blobs.SpooledBlob;
+import com.legoaggelos.catplace.cats.posts.Post;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.json.JsonTest;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Blob;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Also the peak memory benchmark for uploads: decoding the old way (getText, then Base64.decode, then SerialBlob) allocated
+ * about 3.3 times the image on the heap at once. This measures what one deserialization allocates now and prints it.
+ */
+@JsonTest
+@AutoConfigureTestDatabase
+class SerialBlobDeserializerTests {
+    @Autowired
+    ObjectMapper objectMapper;
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 5, 20})
+    void shouldDecodeUploadsWithoutHoldingThemOnTheHeap(int megabytes) throws IOException, SQLException, NoSuchAlgorithmException {
+        long size = megabytes * 1024L * 1024L;
+        Path json = directory.resolve("post.json");
+        byte[] expectedHash = writePostJson(json, size);
+
+        objectMapper.readValue("{\"image\": \"Y2F0\"}", Post.class); //warm up, so class loading and deserializer lookup aren't counted
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        Post post;
+        try (InputStream in = Files.newInputStream(json)) {
+            post = objectMapper.readValue(in, Post.class);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertThat(post.image()).isInstanceOf(SpooledBlob.class);
+        assertThat(post.image().length()).isEqualTo(size);
+        assertThat(hash(post.image())).isEqualTo(expectedHash);
+        assertThat(allocated).isLessThan(1024 * 1024); //flat whatever the size, the image or its base64 text never lands on the heap in one piece
+        post.image().free();
+    }
+
+    @Test
+    void shouldKeepSmallUploadsInMemoryAndAcceptMissingPadding() throws IOException, SQLException {
+        Post post = objectMapper.readValue("{\"image\": \"Y2F0\", \"desc\": \"cat\"}", Post.class);
+        assertThat(post.image().getBytes(1, 3)).isEqualTo("cat".getBytes(StandardCharsets.UTF_8));
+
+        post = objectMapper.readValue("{\"image\": \"Y2F0cw\", \"desc\": \"cats\"}", Post.class); //no == at the end
+        assertThat(post.image().getBytes(1, 4)).isEqualTo("cats".getBytes(StandardCharsets.UTF_8));
+
+        post = objectMapper.readValue("{\"image\": null, \"desc\": \"no cat\"}", Post.class);
+        assertThat(post.image()).isNull();
+    }
+
+    private static byte[] writePostJson(Path json, long size) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        Random random = new Random(size);
+        byte[] chunk = new byte[64 * 1024];
+        try (OutputStream out = Files.newOutputStream(json)) {
+            out.write("{\"catOwner\": 5, \"desc\": \"big cat\", \"image\": \"".getBytes(StandardCharsets.UTF_8));
+            OutputStream image = new DigestOutputStream(Base64.getEncoder().wrap(new NonClosingOutputStream(out)), digest);
+            for (long written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                image.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+            }
+            image.close(); //flushes the last base64 quantum and its padding
+            out.write("\"}".getBytes(StandardCharsets.UTF_8));
+        }
+        return digest.digest();
+    }
+
+    private static byte[] hash(Blob blob) throws SQLException, IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (InputStream in = blob.getBinaryStream()) {
+            in.transferTo(new DigestOutputStream(OutputStream.nullOutputStream(), digest));
+        }
+        return digest.digest();
+    }
+
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
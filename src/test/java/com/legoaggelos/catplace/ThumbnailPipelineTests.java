@@ -0,0 +1,207 @@
+package com.legoaggelos.catplace;
+
+import com.jayway.jsonpath.JsonPath;
+import com.legoaggelos.catplace.blobs.BlobStore;
+import com.legoaggelos.catplace.blobs.ImageDerivatives;
+import com.legoaggelos.catplace.blobs.ThumbnailPipeline;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.simple.JdbcClient;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+import java.util.zip.CRC32;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT, properties = "catplace.blobs.directory=build/thumbnail-blobs")
+@AutoConfigureTestDatabase
+class ThumbnailPipelineTests {
+    @Autowired
+    TestRestTemplate restTemplate;
+
+    @Autowired
+    BlobStore blobStore;
+
+    @Autowired
+    ImageDerivatives derivatives;
+
+    @Autowired
+    ThumbnailPipeline thumbnailPipeline;
+
+    @Autowired
+    JdbcClient jdbcClient;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Test
+    void shouldMakeEveryDerivativeSmallerThanTheOriginal() throws IOException {
+        String seeded = blobStore.store(Files.newInputStream(Paths.get("img.png"))); //640x480
+        thumbnailPipeline.process(seeded);
+
+        assertThat(longestSide(derivatives.findSmallestAtLeast(seeded, 100).orElseThrow())).isEqualTo(128);
+        assertThat(longestSide(derivatives.findSmallestAtLeast(seeded, 128).orElseThrow())).isEqualTo(128);
+        assertThat(longestSide(derivatives.findSmallestAtLeast(seeded, 129).orElseThrow())).isEqualTo(512);
+        assertThat(derivatives.findSmallestAtLeast(seeded, 600)).isEmpty(); //only the original is that big
+        assertThat(meterRegistry.get("catplace.thumbnails.bytes.saved").counter().count()).isPositive();
+    }
+
+    @Test
+    void shouldServeSmallestDerivativeThatFits() throws IOException {
+        String seeded = blobStore.store(Files.newInputStream(Paths.get("img.png")));
+        thumbnailPipeline.process(seeded);
+
+        ResponseEntity<byte[]> thumbnail = restTemplate.getForEntity("/catposts/5/image?size=128", byte[].class);
+        assertThat(thumbnail.getStatusCode()).isEqualTo(HttpStatus.OK);
+        assertThat(ImageIO.read(new ByteArrayInputStream(thumbnail.getBody())).getWidth()).isEqualTo(128);
+        assertThat(thumbnail.getHeaders().getETag()).isNotEqualTo("\"" + seeded + "\"");
+
+        ResponseEntity<byte[]> original = restTemplate.getForEntity("/catposts/5/image?size=1000", byte[].class);
+        assertThat(original.getHeaders().getETag()).isEqualTo("\"" + seeded + "\"");
+        assertThat(ImageIO.read(new ByteArrayInputStream(original.getBody())).getWidth()).isEqualTo(640);
+    }
+
+    @Test
+    @DirtiesContext
+    void shouldMakeDerivativesOfUploadsInTheBackground() throws IOException, InterruptedException {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        ResponseEntity<Void> createResponse = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .postForEntity("/catposts?catOwner=5&desc=noisy cat", new HttpEntity<>(noise(600, 400, 1), headers), Void.class);
+        assertThat(createResponse.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+
+        TestRestTemplate paul = restTemplate.withBasicAuth("paul", "abc123"); //the post isn't approved yet
+        String thumbnailUrl = JsonPath.parse(paul.getForObject(createResponse.getHeaders().getLocation(), String.class)).read("$.thumbnailUrl");
+        assertThat(thumbnailUrl).endsWith("/image?size=" + ThumbnailPipeline.PREVIEW_SIZE);
+        assertThat(eventually(() -> queueDepth() == 0)).isTrue();
+        BufferedImage thumbnail = ImageIO.read(new ByteArrayInputStream(paul.getForObject(thumbnailUrl, byte[].class)));
+        assertThat(thumbnail.getWidth()).isEqualTo(128);
+    }
+
+    @Test
+    void shouldPickUpJobsLeftInTheQueue() throws IOException, InterruptedException {
+        String source = blobStore.store(new ByteArrayInputStream(noise(400, 300, 2)));
+        //as if the executor was full, or the application stopped, right after the upload
+        jdbcClient.sql("insert into THUMBNAIL_JOB(SOURCE, ENQUEUED_AT) values (:source, :enqueuedAt)")
+                .param("source", source)
+                .param("enqueuedAt", OffsetDateTime.now())
+                .update();
+
+        thumbnailPipeline.submitQueued();
+
+        assertThat(eventually(() -> queueDepth() == 0)).isTrue();
+        assertThat(derivatives.existFor(source)).isTrue();
+    }
+
+    @Test
+    void shouldGiveUpOnImagesWithTooManyPixels() throws IOException {
+        String source = blobStore.store(new ByteArrayInputStream(pngHeader(30000, 30000))); //a few bytes claiming 900 megapixels
+        jdbcClient.sql("insert into THUMBNAIL_JOB(SOURCE, ENQUEUED_AT) values (:source, :enqueuedAt)")
+                .param("source", source)
+                .param("enqueuedAt", OffsetDateTime.now())
+                .update();
+
+        thumbnailPipeline.process(source);
+
+        assertThat(jdbcClient.sql("select count(*) from THUMBNAIL_JOB where SOURCE = :source").param("source", source).query(Long.class).single()).isZero();
+        assertThat(derivatives.existFor(source)).isFalse();
+    }
+
+    @Test
+    void shouldScaleSubsampledImagesToTheExactSizes() throws IOException {
+        String source = blobStore.store(new ByteArrayInputStream(noise(1600, 1200, 3))); //decoded at a third of its size
+        thumbnailPipeline.process(source);
+
+        assertThat(longestSide(derivatives.findSmallestAtLeast(source, 512).orElseThrow())).isEqualTo(512);
+        assertThat(longestSide(derivatives.findSmallestAtLeast(source, 128).orElseThrow())).isEqualTo(128);
+    }
+
+    @Test
+    void onlyAdminShouldSeeThumbnailMetrics() {
+        ResponseEntity<String> response = restTemplate
+                .withBasicAuth("legoaggelos", "admin")
+                .getForEntity("/actuator/metrics/catplace.thumbnails.queue.depth", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
+
+        response = restTemplate
+                .withBasicAuth("paul", "abc123")
+                .getForEntity("/actuator/metrics/catplace.thumbnails.queue.depth", String.class);
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.FORBIDDEN);
+    }
+
+    private long queueDepth() {
+        return jdbcClient.sql("select count(*) from THUMBNAIL_JOB").query(Long.class).single();
+    }
+
+    private int longestSide(String hash) throws IOException {
+        try (InputStream in = blobStore.open(hash)) {
+            BufferedImage image = ImageIO.read(in);
+            return Math.max(image.getWidth(), image.getHeight());
+        }
+    }
+
+    //random pixels don't compress, so every derivative is smaller than the png
+    private static byte[] noise(int width, int height, long seed) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    //the signature and IHDR of a png, which is all a reader needs for its size, and nothing to decode
+    private static byte[] pngHeader(int width, int height) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'});
+        ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(chunk);
+        header.writeBytes("IHDR");
+        header.writeInt(width);
+        header.writeInt(height);
+        header.write(new byte[]{8, 2, 0, 0, 0}); //8 bit rgb
+        CRC32 crc = new CRC32();
+        crc.update(chunk.toByteArray());
+        data.writeInt(13);
+        data.write(chunk.toByteArray());
+        data.writeInt((int) crc.getValue());
+        return out.toByteArray();
+    }
+
+    private static boolean eventually(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+}
@@ -11,10 +11,12 @@ INSERT INTO CAT(ID, NAME, DATE_OF_BIRTH, OWNER, BIO, IS_ALIVE) VALUES (6, 'konto
 INSERT INTO CAT(ID, NAME, DATE_OF_BIRTH, OWNER, BIO, IS_ALIVE) VALUES (3, 'mesos', NULL, 'paul', 'average', true);
 INSERT INTO CAT(ID, NAME, DATE_OF_BIRTH, OWNER, BIO, IS_ALIVE) VALUES (4, 'arabas', NULL, 'kat', 'arabian', true);
 
-INSERT INTO POST(ID, IMAGE, CAT_OWNER, USER_OWNER, DESC, UPLOAD_DATE, IS_APPROVED) VALUES (5, FILE_READ('img.png'), 5/*cat 5*/, 'paul', 'Cute cat!!', '2025-04-08T02:30:30Z', TRUE);
-INSERT INTO POST(ID, IMAGE, CAT_OWNER, USER_OWNER, DESC, UPLOAD_DATE, IS_APPROVED) VALUES (2, FILE_READ('img.png'), 5/*cat 5*/, 'paul', 'Cuter cat!!', '2025-04-08T01:30:30Z', TRUE);
-INSERT INTO POST(ID, IMAGE, CAT_OWNER, USER_OWNER, DESC, UPLOAD_DATE, IS_APPROVED) VALUES (3, FILE_READ('img.png'), 3/*cat 3*/, 'paul', 'Even cuter cat!!', '2025-04-09T02:30:30Z', TRUE);
-INSERT INTO POST(ID, IMAGE, CAT_OWNER, USER_OWNER, DESC, UPLOAD_DATE, IS_APPROVED) VALUES (4, FILE_READ('img.png'), 4/*cat 4*/, 'kat', 'arabian cat!!', '2025-02-09T02:30:30Z', TRUE);
+SET @img = LOWER(RAWTOHEX(HASH('SHA-256', FILE_READ('img.png'))));
+CALL FILE_WRITE(FILE_READ('img.png'), 'blobs/' || @img); --post images live in the blob store, the row only has the hash
+INSERT INTO POST(ID, IMAGE, CAT_OWNER, USER_OWNER, DESC, UPLOAD_DATE, IS_APPROVED) VALUES (5, @img, 5/*cat 5*/, 'paul', 'Cute cat!!', '2025-04-08T02:30:30Z', TRUE);
+INSERT INTO POST(ID, IMAGE, CAT_OWNER, USER_OWNER, DESC, UPLOAD_DATE, IS_APPROVED) VALUES (2, @img, 5/*cat 5*/, 'paul', 'Cuter cat!!', '2025-04-08T01:30:30Z', TRUE);
+INSERT INTO POST(ID, IMAGE, CAT_OWNER, USER_OWNER, DESC, UPLOAD_DATE, IS_APPROVED) VALUES (3, @img, 3/*cat 3*/, 'paul', 'Even cuter cat!!', '2025-04-09T02:30:30Z', TRUE);
+INSERT INTO POST(ID, IMAGE, CAT_OWNER, USER_OWNER, DESC, UPLOAD_DATE, IS_APPROVED) VALUES (4, @img, 4/*cat 4*/, 'kat', 'arabian cat!!', '2025-02-09T02:30:30Z', TRUE);
 
 INSERT INTO COMMENT(ID, CONTENT, POST_ID, POSTER, POST_USER_POSTER, POST_CAT_POSTER, POST_TIME) VALUES (2, 'Your car is so cute!!', 5, 'kat', 'paul', 5, '2025-04-08T02:30:30Z');
 INSERT INTO COMMENT(ID, CONTENT, POST_ID, POSTER, POST_USER_POSTER, POST_CAT_POSTER, POST_TIME) VALUES (3, 'Love your car', 2, 'kat', 'paul', 5, '2025-04-08T01:30:30Z');